@@ -0,0 +1,121 @@
+package com.example.documentmanager.cache;
+
+import com.example.documentmanager.compress.StorageCodec;
+import com.example.documentmanager.entity.Document;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 热点小文件的堆外内容缓存
+ * 文件内容保存在直接缓冲区中，以内容哈希为键（去重后共享同一物理文件的文档共用一个条目），
+ * 在总内存预算内按W-TinyLFU淘汰。被淘汰的直接缓冲区由GC回收其堆外内存。
+ */
+@Component
+public class ContentCache {
+
+    private static final int LOAD_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${file.content-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.content-cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${file.content-cache.max-file-size:1048576}")
+    private long maxFileSize;
+
+    private Cache<String, ByteBuffer> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String key, ByteBuffer buffer) -> buffer.capacity())
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * 文档是否适合使用内容缓存
+     */
+    public boolean isCacheable(Document document) {
+        return enabled && document.getFileSize() != null && document.getFileSize() <= maxFileSize;
+    }
+
+    /**
+     * 获取文档内容，未命中时从磁盘加载；返回的缓冲区为只读视图，position为0
+     */
+    public ByteBuffer get(Document document, Path filePath) throws IOException {
+        try {
+            ByteBuffer buffer = cache.get(key(document), key -> load(document, filePath));
+            return buffer.asReadOnlyBuffer();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("entries", cache.estimatedSize());
+        result.put("weightedSize", cache.policy().eviction()
+            .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        result.put("maxBytes", maxBytes);
+        result.put("maxFileSize", maxFileSize);
+        return result;
+    }
+
+    private static String key(Document document) {
+        String algorithm = document.getHashAlgorithm() == null ? "MD5" : document.getHashAlgorithm();
+        return algorithm + ":" + document.getFileHash();
+    }
+
+    private static ByteBuffer load(Document document, Path filePath) {
+        StorageCodec codec = StorageCodec.fromName(document.getStorageCodec());
+        if (!codec.isIdentity()) {
+            // 压缩存储的文件缓存解压后的原始内容
+            try (InputStream inputStream = codec.open(filePath, 0, document.getFileSize())) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(document.getFileSize().intValue());
+                byte[] chunk = new byte[LOAD_BUFFER_SIZE];
+                int bytesRead;
+                while (buffer.hasRemaining() && (bytesRead = inputStream.read(chunk, 0,
+                        Math.min(chunk.length, buffer.remaining()))) != -1) {
+                    buffer.put(chunk, 0, bytesRead);
+                }
+                buffer.flip();
+                return buffer;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // 读取直到缓冲区填满
+            }
+            buffer.flip();
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
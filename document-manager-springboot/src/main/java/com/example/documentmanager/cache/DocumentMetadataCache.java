@@ -0,0 +1,86 @@
+package com.example.documentmanager.cache;
+
+import com.example.documentmanager.entity.Document;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 文档元数据的进程内读穿透缓存
+ * 按估算的内存占用限制总大小，使用Caffeine的W-TinyLFU策略淘汰；只缓存上传完成的文档
+ */
+@Component
+public class DocumentMetadataCache {
+
+    /**
+     * 每条缓存记录除字符串外的估算开销（对象头、包装类型、Date等）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 512;
+
+    @Value("${file.metadata-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    private Cache<Long, Document> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((Long id, Document document) -> estimateSize(document))
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * 读取文档元数据，未命中时通过 loader 加载；loader 返回null或文档未完成上传时不缓存
+     */
+    public Document get(Long id, Function<Long, Document> loader) {
+        Document document = cache.getIfPresent(id);
+        if (document != null) {
+            return document;
+        }
+        document = loader.apply(id);
+        if (document != null && "completed".equals(document.getUploadStatus())) {
+            cache.put(id, document);
+        }
+        return document;
+    }
+
+    public void invalidate(Long id) {
+        if (id != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("entries", cache.estimatedSize());
+        result.put("weightedSize", cache.policy().eviction()
+            .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        result.put("maxBytes", maxBytes);
+        return result;
+    }
+
+    private static int estimateSize(Document document) {
+        return ENTRY_OVERHEAD_BYTES
+            + 2 * (length(document.getFilename()) + length(document.getStoredFilename())
+                + length(document.getFileHash()) + length(document.getContentType())
+                + length(document.getDescription()) + length(document.getTreeHash()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.documentmanager.compress;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 分块压缩文件的读取器
+ * 文件格式：
+ * <pre>
+ * 头部   magic(4) blockSize(4)
+ * 数据块 每块独立的zlib压缩数据，或原样存储的原始数据
+ * 索引   每块一个int：压缩后长度，负数表示原样存储的长度
+ * 尾部   originalSize(8) blockCount(4) indexOffset(8) magic(4)
+ * </pre>
+ * 通过索引定位包含目标偏移量的块，Range请求只需解压覆盖范围内的块。
+ * 存储文件写入后不再修改（文件名唯一），解析出的索引按路径缓存，同一文件的多次读取（如分段下载）不必重复读取头尾和索引。
+ */
+public class BlockCompressedFile {
+
+    static final int MAGIC = 0x444D5A42; // "DMZB"
+
+    static final int HEADER_SIZE = 8;
+
+    static final int TRAILER_SIZE = 24;
+
+    // 每块索引占用一个long和一个int
+    private static final int INDEX_BYTES_PER_BLOCK = 12;
+
+    private static final int INDEX_OVERHEAD_BYTES = 128;
+
+    private static final Cache<Path, BlockCompressedFile> INDEX_CACHE = Caffeine.newBuilder()
+        .maximumWeight(32L * 1024 * 1024)
+        .weigher((Path path, BlockCompressedFile file) ->
+            INDEX_OVERHEAD_BYTES + file.offsets.length * INDEX_BYTES_PER_BLOCK)
+        .expireAfterAccess(10, TimeUnit.MINUTES)
+        .build();
+
+    private final Path path;
+
+    private final int blockSize;
+
+    private final long originalSize;
+
+    // 第i块在文件中的起始位置为offsets[i]，长度为lengths[i]（负数表示原样存储）
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    private BlockCompressedFile(Path path, int blockSize, long originalSize, long[] offsets, int[] lengths) {
+        this.path = path;
+        this.blockSize = blockSize;
+        this.originalSize = originalSize;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * 打开分块压缩文件，块索引已缓存时不再读取文件
+     */
+    public static BlockCompressedFile open(Path path) throws IOException {
+        try {
+            return INDEX_CACHE.get(path.toAbsolutePath().normalize(), key -> {
+                try {
+                    return readIndex(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 读取文件头部、尾部和块索引
+     */
+    private static BlockCompressedFile readIndex(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("压缩存储文件已损坏：" + path);
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            ByteBuffer trailer = readFully(channel, fileSize - TRAILER_SIZE, TRAILER_SIZE);
+            if (header.getInt() != MAGIC || trailer.getInt(TRAILER_SIZE - 4) != MAGIC) {
+                throw new IOException("不是分块压缩文件：" + path);
+            }
+            int blockSize = header.getInt();
+            long originalSize = trailer.getLong();
+            int blockCount = trailer.getInt();
+            long indexOffset = trailer.getLong();
+
+            ByteBuffer indexBuffer = readFully(channel, indexOffset, blockCount * 4);
+            long[] offsets = new long[blockCount];
+            int[] lengths = new int[blockCount];
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = offset;
+                lengths[i] = indexBuffer.getInt();
+                offset += Math.abs(lengths[i]);
+            }
+            return new BlockCompressedFile(path, blockSize, originalSize, offsets, lengths);
+        }
+    }
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+    /**
+     * 打开原始内容中从start开始、长度为length的范围，只解压覆盖该范围的块
+     */
+    public InputStream newInputStream(long start, long length) throws IOException {
+        if (start < 0 || length < 0 || start + length > originalSize) {
+            throw new IOException("读取范围超出文件内容");
+        }
+        return new BlockInputStream(FileChannel.open(path, StandardOpenOption.READ), start, length);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("压缩存储文件已损坏");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private class BlockInputStream extends InputStream {
+        private final FileChannel channel;
+        private final Inflater inflater = new Inflater();
+        private final byte[] block = new byte[blockSize];
+        private byte[] encoded;
+        private int nextBlock;
+        private int blockPosition;
+        private int blockLimit;
+        private long remaining;
+
+        BlockInputStream(FileChannel channel, long start, long length) throws IOException {
+            this.channel = channel;
+            this.nextBlock = (int) (start / blockSize);
+            this.remaining = length;
+            if (length > 0) {
+                loadNextBlock();
+                blockPosition = (int) (start % blockSize);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == 1 ? single[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (blockPosition == blockLimit) {
+                loadNextBlock();
+            }
+            int length = (int) Math.min(Math.min(len, blockLimit - blockPosition), remaining);
+            System.arraycopy(block, blockPosition, b, off, length);
+            blockPosition += length;
+            remaining -= length;
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && remaining > 0) {
+                if (blockPosition == blockLimit) {
+                    loadNextBlock();
+                }
+                int length = (int) Math.min(Math.min(n - skipped, blockLimit - blockPosition), remaining);
+                blockPosition += length;
+                remaining -= length;
+                skipped += length;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+
+        private void loadNextBlock() throws IOException {
+            if (nextBlock >= offsets.length) {
+                throw new EOFException("压缩存储文件短于记录的大小");
+            }
+            int length = lengths[nextBlock];
+            long offset = offsets[nextBlock];
+            nextBlock++;
+            if (length < 0) {
+                blockLimit = -length;
+                readBlock(ByteBuffer.wrap(block, 0, blockLimit), offset);
+            } else {
+                if (encoded == null || encoded.length < length) {
+                    encoded = new byte[Math.max(length, blockSize)];
+                }
+                readBlock(ByteBuffer.wrap(encoded, 0, length), offset);
+                inflater.reset();
+                inflater.setInput(encoded, 0, length);
+                try {
+                    blockLimit = 0;
+                    while (!inflater.finished() && blockLimit < block.length) {
+                        int inflated = inflater.inflate(block, blockLimit, block.length - blockLimit);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new IOException("压缩块数据不完整");
+                        }
+                        blockLimit += inflated;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("压缩块数据已损坏", e);
+                }
+            }
+            blockPosition = 0;
+        }
+
+        private void readBlock(ByteBuffer buffer, long offset) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("压缩存储文件短于记录的大小");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.documentmanager.compress;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * 分块压缩文件的写入流
+ * 原始内容按固定块大小切分，每块独立压缩（压缩后不变小的块原样存储），
+ * 关闭时在文件末尾写入块索引和尾部信息，格式见 {@link BlockCompressedFile}。
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+
+    private final DataOutputStream out;
+
+    private final Deflater deflater;
+
+    private final byte[] block;
+
+    private final byte[] encoded;
+
+    private int blockLength;
+
+    private int[] index = new int[64];
+
+    private int blockCount;
+
+    private long originalSize;
+
+    private long position;
+
+    private boolean closed;
+
+    public BlockCompressedOutputStream(OutputStream outputStream, int blockSize, int level) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+        this.deflater = new Deflater(level);
+        this.block = new byte[blockSize];
+        this.encoded = new byte[blockSize];
+        out.writeInt(BlockCompressedFile.MAGIC);
+        out.writeInt(blockSize);
+        position = BlockCompressedFile.HEADER_SIZE;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if (blockLength == block.length) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int length = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, length);
+            blockLength += length;
+            off += length;
+            len -= length;
+            if (blockLength == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * 已写入的原始字节数
+     */
+    public long getOriginalSize() {
+        return originalSize + blockLength;
+    }
+
+    /**
+     * 关闭后的文件总字节数（含头部、索引和尾部）
+     */
+    public long getStoredSize() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (blockLength > 0) {
+                writeBlock();
+            }
+            long indexOffset = position;
+            for (int i = 0; i < blockCount; i++) {
+                out.writeInt(index[i]);
+            }
+            out.writeLong(originalSize);
+            out.writeInt(blockCount);
+            out.writeLong(indexOffset);
+            out.writeInt(BlockCompressedFile.MAGIC);
+            position += (long) blockCount * 4 + BlockCompressedFile.TRAILER_SIZE;
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        int encodedLength = 0;
+        while (!deflater.finished() && encodedLength < encoded.length) {
+            encodedLength += deflater.deflate(encoded, encodedLength, encoded.length - encodedLength);
+        }
+        int entry;
+        if (deflater.finished() && encodedLength < blockLength) {
+            out.write(encoded, 0, encodedLength);
+            entry = encodedLength;
+        } else {
+            // 压缩后不变小：原样存储，索引中以负数长度标记
+            out.write(block, 0, blockLength);
+            encodedLength = blockLength;
+            entry = -blockLength;
+        }
+        if (blockCount == index.length) {
+            int[] grown = new int[index.length * 2];
+            System.arraycopy(index, 0, grown, 0, index.length);
+            index = grown;
+        }
+        index[blockCount++] = entry;
+        position += encodedLength;
+        originalSize += blockLength;
+        blockLength = 0;
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.documentmanager.compress;
+
+import com.example.documentmanager.entity.Document;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 可压缩文档的gzip压缩变体
+ * 文本、CSV、JSON、XML、日志等内容在客户端接受gzip时压缩传输。
+ * 首次请求时边压缩边发送，同时在后台生成压缩变体文件（uploadDir/variants/算法/哈希.gz），
+ * 之后的请求直接发送预先压缩好的文件，可以使用sendfile零拷贝。
+ * 压缩级别固定，相同内容的压缩结果逐字节一致，因此即时压缩和变体文件可以共用同一个实体标签。
+ */
+@Component
+public class CompressedVariantStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CompressedVariantStore.class);
+
+    private static final String VARIANT_DIR = "variants";
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${file.upload-dir}")
+    private String uploadDir;
+
+    @Value("${file.compression.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.compression.min-size:1024}")
+    private long minSize;
+
+    @Value("${file.compression.level:6}")
+    private int level;
+
+    @Value("${file.compression.mime-types:text/*,application/json,application/xml,application/javascript,application/x-ndjson}")
+    private String mimeTypes;
+
+    @Value("${file.compression.extensions:txt,log,csv,tsv,json,xml,md,html,htm,css,js,yml,yaml,properties,sql}")
+    private String extensions;
+
+    // 单线程后台压缩，避免大文件压缩占用请求线程或与分片合并争抢线程
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "variant-compress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Set<String> compressibleMimeTypes;
+
+    private Set<String> compressibleExtensions;
+
+    // 正在后台生成的变体，防止并发请求重复压缩同一内容
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        compressibleMimeTypes = toSet(mimeTypes);
+        compressibleExtensions = toSet(extensions);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        backgroundExecutor.shutdownNow();
+    }
+
+    /**
+     * 文档内容类型是否值得压缩（与客户端能力无关，用于决定是否输出Vary头）
+     */
+    public boolean isCompressible(Document document) {
+        if (!enabled || document.getFileSize() == null || document.getFileSize() < minSize) {
+            return false;
+        }
+        return isCompressibleType(document.getContentType(), document.getFilename());
+    }
+
+    /**
+     * 按内容类型和文件扩展名判断内容是否属于可压缩的文本类格式
+     */
+    public boolean isCompressibleType(String contentType, String filename) {
+        if (contentType != null) {
+            String mimeType = contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+            if (compressibleMimeTypes.contains(mimeType)
+                    || compressibleMimeTypes.contains(mimeType.substring(0, mimeType.indexOf('/') + 1) + "*")
+                    || mimeType.endsWith("+json") || mimeType.endsWith("+xml")) {
+                return true;
+            }
+        }
+        String extension = FilenameUtils.getExtension(filename);
+        return extension != null && compressibleExtensions.contains(extension.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 客户端是否接受gzip编码（q=0表示明确拒绝）
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!coding.equals("gzip") && !coding.equals("x-gzip") && !coding.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取已生成的压缩变体文件，不存在时返回null
+     */
+    public Path getVariant(String hashAlgorithm, String fileHash) {
+        Path variant = variantPath(hashAlgorithm, fileHash);
+        return Files.exists(variant) ? variant : null;
+    }
+
+    /**
+     * 在后台为文档生成压缩变体，已存在或正在生成时忽略
+     */
+    public void createVariantAsync(String hashAlgorithm, String fileHash, Path source,
+                                   StorageCodec codec, long fileSize) {
+        String key = hashAlgorithm + ":" + fileHash;
+        if (!pending.add(key)) {
+            return;
+        }
+        try {
+            backgroundExecutor.execute(() -> {
+                try {
+                    createVariant(hashAlgorithm, fileHash, source, codec, fileSize);
+                } catch (IOException e) {
+                    log.warn("生成压缩变体失败：{}", source, e);
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.remove(key);
+            throw e;
+        }
+    }
+
+    /**
+     * 将原始内容以gzip压缩写入输出流，压缩参数与变体文件一致
+     */
+    public void compress(InputStream inputStream, OutputStream outputStream) throws IOException {
+        GZIPOutputStream gzipStream = newGzipStream(outputStream);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            gzipStream.write(buffer, 0, bytesRead);
+        }
+        gzipStream.finish();
+    }
+
+    /**
+     * 删除内容对应的所有压缩变体
+     */
+    public void deleteVariants(String hashAlgorithm, String fileHash) {
+        try {
+            Files.deleteIfExists(variantPath(hashAlgorithm, fileHash));
+        } catch (IOException e) {
+            log.warn("删除压缩变体失败：{}", fileHash, e);
+        }
+    }
+
+    private void createVariant(String hashAlgorithm, String fileHash, Path source,
+                               StorageCodec codec, long fileSize) throws IOException {
+        Path variant = variantPath(hashAlgorithm, fileHash);
+        if (Files.exists(variant)) {
+            return;
+        }
+        Files.createDirectories(variant.getParent());
+        Path temp = Files.createTempFile(variant.getParent(), fileHash, ".tmp");
+        try {
+            try (InputStream inputStream = codec.open(source, 0, fileSize);
+                 OutputStream outputStream = Files.newOutputStream(temp)) {
+                compress(inputStream, outputStream);
+            }
+            try {
+                Files.move(temp, variant, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, variant, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private GZIPOutputStream newGzipStream(OutputStream outputStream) throws IOException {
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    private Path variantPath(String hashAlgorithm, String fileHash) {
+        return Paths.get(uploadDir, VARIANT_DIR, hashAlgorithm, fileHash.toLowerCase(Locale.ROOT) + GZIP_SUFFIX);
+    }
+
+    private static Set<String> toSet(String values) {
+        return Arrays.stream(values.split(","))
+            .map(value -> value.trim().toLowerCase(Locale.ROOT))
+            .filter(value -> !value.isEmpty())
+            .collect(Collectors.toCollection(HashSet::new));
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.documentmanager.compress;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 存储文件的编码方式
+ * 文档的fileSize和fileHash始终对应原始内容，与存储编码无关。
+ */
+public enum StorageCodec {
+    /** 原样存储，可使用sendfile零拷贝发送 */
+    NONE,
+    /** 分块独立压缩并带块索引，可从任意偏移量开始解压 */
+    BLOCK_DEFLATE;
+
+    /**
+     * 是否按原始字节存储（可直接按偏移量读取文件、使用sendfile和内存映射）
+     */
+    public boolean isIdentity() {
+        return this == NONE;
+    }
+
+    /**
+     * 打开原始内容中从start开始、长度为length的范围
+     */
+    public InputStream open(Path path, long start, long length) throws IOException {
+        if (this == BLOCK_DEFLATE) {
+            return BlockCompressedFile.open(path).newInputStream(start, length);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channel.position(start);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    /**
+     * 根据名称解析编码方式，为空时视为原样存储（历史数据）
+     */
+    public static StorageCodec fromName(String name) {
+        if (name == null || name.isEmpty()) {
+            return NONE;
+        }
+        return valueOf(name);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.documentmanager.compress;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 存储压缩：入库时将可压缩的文本类内容以分块压缩格式写入磁盘
+ * 是否压缩按内容类型和扩展名判断（与下载压缩使用相同的规则），压缩率不足时保留原始文件。
+ */
+@Component
+public class StorageCompressor {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${file.storage.compression.enabled:false}")
+    private boolean enabled;
+
+    @Value("${file.storage.compression.block-size:1048576}")
+    private int blockSize;
+
+    @Value("${file.storage.compression.level:6}")
+    private int level;
+
+    // 压缩后大小超过原始大小的该比例时认为不值得压缩
+    @Value("${file.storage.compression.max-ratio:0.9}")
+    private double maxRatio;
+
+    @Autowired
+    private CompressedVariantStore compressedVariantStore;
+
+    /**
+     * 指定类型的内容入库时是否压缩存储
+     */
+    public boolean shouldCompress(String contentType, String filename) {
+        return enabled && compressedVariantStore.isCompressibleType(contentType, filename);
+    }
+
+    /**
+     * 创建写入目标文件的分块压缩输出流
+     */
+    public BlockCompressedOutputStream newOutputStream(Path target) throws IOException {
+        return new BlockCompressedOutputStream(Files.newOutputStream(target), blockSize, level);
+    }
+
+    /**
+     * 将原始文件压缩到目标文件；压缩率不足时删除目标文件并返回NONE，调用方继续使用原始文件
+     */
+    public StorageCodec compressFile(Path source, Path target) throws IOException {
+        long sourceSize = Files.size(source);
+        BlockCompressedOutputStream outputStream = newOutputStream(target);
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            closeQuietly(outputStream);
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        outputStream.close();
+        if (!isWorthwhile(sourceSize, outputStream.getStoredSize())) {
+            Files.deleteIfExists(target);
+            return StorageCodec.NONE;
+        }
+        return StorageCodec.BLOCK_DEFLATE;
+    }
+
+    /**
+     * 压缩后的大小是否达到配置的压缩率
+     */
+    private boolean isWorthwhile(long originalSize, long storedSize) {
+        return storedSize <= originalSize * maxRatio;
+    }
+
+    private static void closeQuietly(OutputStream outputStream) {
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+}
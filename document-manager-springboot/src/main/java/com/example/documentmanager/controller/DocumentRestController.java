@@ -1,7 +1,18 @@
 package com.example.documentmanager.controller;
 
 import com.example.documentmanager.entity.Document;
+import com.example.documentmanager.hash.HashAlgorithm;
 import com.example.documentmanager.service.DocumentService;
+import com.example.documentmanager.transfer.FileTransferEngine;
+import com.example.documentmanager.transfer.TransferLimiter;
+import com.example.documentmanager.transfer.TransferPermit;
+import com.example.documentmanager.upload.ChunkSizeAdvisor;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -11,6 +22,7 @@ import org.springframework.web.multipart.MultipartFile;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +35,15 @@ public class DocumentRestController {
     @Autowired
     private DocumentService documentService;
 
+    @Autowired
+    private TransferLimiter transferLimiter;
+
+    @Autowired
+    private ChunkSizeAdvisor chunkSizeAdvisor;
+
+    @Autowired
+    private FileTransferEngine fileTransferEngine;
+
     /**
      * 获取所有文档列表
      */
@@ -32,6 +53,47 @@ public class DocumentRestController {
         return ResponseEntity.ok(documents);
     }
 
+    /**
+     * 分页获取文档列表（键集分页）
+     * sort: uploadTime、fileSize、downloadCount；order: asc、desc；
+     * cursor: 上一页返回的nextCursor；fields: 逗号分隔的返回字段
+     */
+    @GetMapping("/page")
+    public ResponseEntity<Map<String, Object>> getDocumentPage(
+            @RequestParam(value = "sort", defaultValue = "uploadTime") String sort,
+            @RequestParam(value = "order", defaultValue = "desc") String order,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "size", defaultValue = "50") Integer size,
+            @RequestParam(value = "fields", required = false) String fields) {
+        try {
+            return ResponseEntity.ok(documentService.getDocumentPage(sort, order, cursor, size, fields));
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 获取缓存命中统计
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(documentService.getCacheStats());
+    }
+
+    /**
+     * 获取传输限速配置、当前并发情况、下载传输吞吐量和分片方案建议依据的统计
+     */
+    @GetMapping("/transfer/stats")
+    public ResponseEntity<Map<String, Object>> getTransferStats() {
+        Map<String, Object> stats = transferLimiter.getStats();
+        stats.put("download", fileTransferEngine.getStats());
+        stats.put("chunkUpload", chunkSizeAdvisor.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
     /**
      * 根据ID获取文档信息
      */
@@ -71,12 +133,80 @@ public class DocumentRestController {
         }
     }
 
+    /**
+     * 流式上传文件（不经过multipart临时文件，边解析请求体边写入存储）
+     * 注意：该接口不能使用@RequestParam，否则会触发容器对整个请求体的解析
+     */
+    @PostMapping("/stream")
+    public ResponseEntity<Map<String, Object>> uploadDocumentStream(HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (!ServletFileUpload.isMultipartContent(request)) {
+            response.put("success", false);
+            response.put("message", "请求必须为multipart/form-data格式");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        TransferPermit permit = transferLimiter.open(request, TransferLimiter.Endpoint.UPLOAD);
+        if (permit == null) {
+            return tooManyTransfers();
+        }
+        try {
+            ServletFileUpload upload = new ServletFileUpload();
+            upload.setHeaderEncoding("UTF-8");
+            FileItemIterator iterator = upload.getItemIterator(request);
+            while (iterator.hasNext()) {
+                FileItemStream item = iterator.next();
+                if (item.isFormField() || item.getName() == null || item.getName().isEmpty()) {
+                    continue;
+                }
+                try (InputStream inputStream = permit.wrap(item.openStream())) {
+                    Document document = documentService.saveDocument(
+                        FilenameUtils.getName(item.getName()), item.getContentType(), inputStream);
+                    response.put("success", true);
+                    response.put("message", "文件上传成功");
+                    response.put("document", document);
+                    return ResponseEntity.ok(response);
+                }
+            }
+            response.put("success", false);
+            response.put("message", "请选择一个文件上传");
+            return ResponseEntity.badRequest().body(response);
+        } catch (FileUploadException | IOException e) {
+            response.put("success", false);
+            response.put("message", "文件上传失败: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * 秒传预检：根据文件名、大小和哈希判断内容是否已存储
+     * 已存储时直接创建文档记录（exists=true），客户端无需上传文件内容
+     */
+    @PostMapping("/instant")
+    public ResponseEntity<Map<String, Object>> instantUpload(
+            @RequestParam("filename") String filename,
+            @RequestParam("fileSize") Long fileSize,
+            @RequestParam("fileHash") String fileHash,
+            @RequestParam(value = "hashAlgorithm", defaultValue = "MD5") String hashAlgorithm,
+            @RequestParam(value = "contentType", defaultValue = "application/octet-stream") String contentType) {
+        if (!isSupportedHashAlgorithm(hashAlgorithm)) {
+            return unsupportedHashAlgorithm(hashAlgorithm);
+        }
+        Map<String, Object> result = documentService.instantUpload(filename, fileHash, fileSize, hashAlgorithm, contentType);
+        return ResponseEntity.ok(result);
+    }
+
     /**
      * 下载文件（普通下载）
      */
     @GetMapping("/{id}/download")
-    public void downloadDocument(@PathVariable Long id, HttpServletResponse response) throws IOException {
-        documentService.downloadDocument(id, response);
+    public void downloadDocument(@PathVariable Long id,
+                                 HttpServletRequest request,
+                                 HttpServletResponse response) throws IOException {
+        documentService.downloadDocument(id, request, response);
     }
 
     /**
@@ -89,18 +219,60 @@ public class DocumentRestController {
         documentService.downloadDocumentStream(id, request, response);
     }
 
+    /**
+     * 校验存储文件的完整性（重新计算哈希并与记录比较）
+     */
+    @GetMapping("/{id}/verify")
+    public ResponseEntity<Map<String, Object>> verifyDocument(@PathVariable Long id) {
+        try {
+            Map<String, Object> result = documentService.verifyDocument(id);
+            if (result == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(result);
+        } catch (IOException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "文件校验失败: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * 异步流式下载文件（支持断点续传，使用非阻塞I/O，不在传输期间占用工作线程）
+     */
+    @GetMapping("/{id}/download-async")
+    public void downloadDocumentAsync(@PathVariable Long id,
+                                      HttpServletRequest request,
+                                      HttpServletResponse response) throws IOException {
+        documentService.downloadDocumentAsync(id, request, response);
+    }
+
     /**
      * 初始化分片上传
+     * uploadMode=direct 时服务端预分配稀疏文件，分片直接写入对应偏移量，合并时无需复制数据；
+     * 不传totalChunks时由服务端按吞吐量和负载决定分片大小，响应中返回chunkSize、totalChunks和建议并发数maxParallel；
+     * 内容已存储时直接创建文档记录，未传contentType时按文件名推断
      */
     @PostMapping("/chunk/init")
     public ResponseEntity<Map<String, Object>> initChunkUpload(
             @RequestParam("filename") String filename,
             @RequestParam("fileHash") String fileHash,
             @RequestParam("fileSize") Long fileSize,
-            @RequestParam("totalChunks") Integer totalChunks) {
+            @RequestParam(value = "totalChunks", required = false) Integer totalChunks,
+            @RequestParam(value = "chunkSize", required = false) Long chunkSize,
+            @RequestParam(value = "uploadMode", defaultValue = "chunked") String uploadMode,
+            @RequestParam(value = "hashAlgorithm", defaultValue = "MD5") String hashAlgorithm,
+            @RequestParam(value = "contentType", required = false) String contentType,
+            HttpServletRequest request) {
+        if (!isSupportedHashAlgorithm(hashAlgorithm)) {
+            return unsupportedHashAlgorithm(hashAlgorithm);
+        }
         Map<String, Object> response = new HashMap<>();
         try {
-            Map<String, Object> result = documentService.initChunkUpload(filename, fileHash, fileSize, totalChunks);
+            Map<String, Object> result = documentService.initChunkUpload(
+                filename, fileHash, fileSize, totalChunks, chunkSize, uploadMode, hashAlgorithm, contentType,
+                request.getRemoteAddr());
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             // 捕获所有异常，包括数据库异常
@@ -119,7 +291,8 @@ public class DocumentRestController {
     public ResponseEntity<Map<String, Object>> uploadChunk(
             @RequestParam("fileHash") String fileHash,
             @RequestParam("chunkIndex") Integer chunkIndex,
-            @RequestParam("chunk") MultipartFile chunk) {
+            @RequestParam("chunk") MultipartFile chunk,
+            HttpServletRequest request) {
         Map<String, Object> response = new HashMap<>();
         
         if (chunk.isEmpty()) {
@@ -128,28 +301,76 @@ public class DocumentRestController {
             return ResponseEntity.badRequest().body(response);
         }
 
-        try {
-            Map<String, Object> result = documentService.uploadChunk(fileHash, chunkIndex, chunk);
+        TransferPermit permit = transferLimiter.open(request, TransferLimiter.Endpoint.UPLOAD);
+        if (permit == null) {
+            return tooManyTransfers();
+        }
+        try (InputStream inputStream = permit.wrap(chunk.getInputStream())) {
+            Map<String, Object> result = documentService.uploadChunk(fileHash, chunkIndex, chunk.getSize(), inputStream);
+            return ResponseEntity.ok(result);
+        } catch (IOException e) {
+            response.put("success", false);
+            response.put("message", "分片上传失败: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * 以原始请求体上传分片（Content-Type: application/octet-stream）
+     * 不经过multipart解析和临时文件，边读取边写入，限速直接作用于客户端连接；
+     * 请求耗时包含客户端的传输时间，作为该客户端的吞吐量样本用于建议分片大小
+     */
+    @PostMapping(value = "/chunk/upload-stream", consumes = "application/octet-stream")
+    public ResponseEntity<Map<String, Object>> uploadChunkStream(
+            @RequestParam("fileHash") String fileHash,
+            @RequestParam("chunkIndex") Integer chunkIndex,
+            HttpServletRequest request) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (request.getContentLengthLong() == 0) {
+            response.put("success", false);
+            response.put("message", "分片文件为空");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        TransferPermit permit = transferLimiter.open(request, TransferLimiter.Endpoint.UPLOAD);
+        if (permit == null) {
+            return tooManyTransfers();
+        }
+        long startNanos = System.nanoTime();
+        try (CountingInputStream inputStream = new CountingInputStream(permit.wrap(request.getInputStream()))) {
+            Map<String, Object> result = documentService.uploadChunk(
+                fileHash, chunkIndex, request.getContentLengthLong(), inputStream);
+            if (Boolean.TRUE.equals(result.get("success")) && !Boolean.TRUE.equals(result.get("skipped"))) {
+                chunkSizeAdvisor.recordThroughput(request.getRemoteAddr(), inputStream.getByteCount(),
+                    System.nanoTime() - startNanos);
+            }
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             response.put("success", false);
             response.put("message", "分片上传失败: " + e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        } finally {
+            permit.close();
         }
     }
 
     /**
      * 合并分片
+     * 合并文件始终做全量哈希校验后才进入内容寻址存储；提供treeHash时还会先按分片哈希构建的Merkle树校验
      */
     @PostMapping("/chunk/merge")
     public ResponseEntity<Map<String, Object>> mergeChunks(
             @RequestParam("fileHash") String fileHash,
             @RequestParam("filename") String filename,
-            @RequestParam("contentType") String contentType) {
+            @RequestParam("contentType") String contentType,
+            @RequestParam(value = "treeHash", required = false) String treeHash) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            Document document = documentService.mergeChunks(fileHash, filename, contentType);
+            Document document = documentService.mergeChunks(fileHash, filename, contentType, treeHash);
             response.put("success", true);
             response.put("message", "文件上传成功");
             response.put("document", document);
@@ -188,4 +409,33 @@ public class DocumentRestController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isSupportedHashAlgorithm(String hashAlgorithm) {
+        try {
+            HashAlgorithm.fromName(hashAlgorithm);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 客户端提供的文件哈希算法不受支持
+     */
+    private ResponseEntity<Map<String, Object>> unsupportedHashAlgorithm(String hashAlgorithm) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "不支持的哈希算法: " + hashAlgorithm);
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    /**
+     * 客户端并发传输数超过上限
+     */
+    private ResponseEntity<Map<String, Object>> tooManyTransfers() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "并发传输数超过限制，请稍后重试");
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header("Retry-After", "1").body(response);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.documentmanager.counter;
+
+import com.example.documentmanager.cache.DocumentMetadataCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 下载次数写后缓冲（write-behind）
+ * 下载请求只在内存中按文档id累加计数，由定时任务批量写回数据库，避免每次下载都更新并锁定热点行。
+ * 每个文档一个LongAdder：同一热门文档的并发下载分散到不同的单元累加，不会争用同一把锁。
+ * 累加器只增不减，写回的是累计值与上次写回值的差：不使用sumThenReset（Java 8中读取和清零各单元不是原子操作，
+ * 会丢失并发的累加），写回失败时也无需把计数放回。
+ * 连续两次写回之间没有新下载的累加器从表中移出，但仍保留一段时间并在之后的写回中检查，
+ * 移出前已取得该累加器的请求随后的累加不会丢失。
+ * 写回后使这些文档的元数据缓存失效，下次读取时加载数据库中最新的下载次数。
+ */
+@Component
+public class DownloadCounter {
+
+    private static final String FLUSH_SQL =
+        "update documents set download_count = download_count + ? where id = ?";
+
+    // 移出的累加器保留的时间，远大于请求从取得累加器到完成累加的时间
+    private static final long RETIRED_GRACE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final ConcurrentHashMap<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    // 已从表中移出、仍在宽限期内的累加器，只在flush中访问
+    private final List<Counter> retired = new ArrayList<>();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DocumentMetadataCache documentMetadataCache;
+
+    private static class Counter {
+        final Long documentId;
+        final LongAdder total = new LongAdder();
+        volatile long flushed;
+        long retiredAt;
+
+        Counter(Long documentId) {
+            this.documentId = documentId;
+        }
+    }
+
+    /**
+     * 记录一次下载
+     */
+    public void increment(Long documentId) {
+        counters.computeIfAbsent(documentId, Counter::new).total.increment();
+    }
+
+    /**
+     * 尚未写回数据库的下载次数
+     */
+    public long getPending(Long documentId) {
+        Counter counter = counters.get(documentId);
+        return counter == null ? 0 : counter.total.sum() - counter.flushed;
+    }
+
+    /**
+     * 将累加的下载次数批量写回数据库
+     */
+    @Scheduled(fixedDelayString = "${file.download-count.flush-interval:5000}")
+    public synchronized void flush() {
+        long now = System.nanoTime();
+        Map<Counter, Long> totals = new HashMap<>();
+        Map<Long, Long> deltas = new HashMap<>();
+        for (Counter counter : counters.values()) {
+            long total = counter.total.sum();
+            long delta = total - counter.flushed;
+            if (delta > 0) {
+                totals.put(counter, total);
+                deltas.merge(counter.documentId, delta, Long::sum);
+            } else if (counters.remove(counter.documentId, counter)) {
+                // 本次写回间隔内没有下载：移出表，之后的下载使用新的累加器
+                counter.retiredAt = now;
+                retired.add(counter);
+            }
+        }
+        for (Counter counter : retired) {
+            long total = counter.total.sum();
+            if (total > counter.flushed) {
+                totals.put(counter, total);
+                deltas.merge(counter.documentId, total - counter.flushed, Long::sum);
+            }
+        }
+        if (!deltas.isEmpty()) {
+            List<Object[]> updates = new ArrayList<>(deltas.size());
+            for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+                updates.add(new Object[] {entry.getValue(), entry.getKey()});
+            }
+            // 写回失败时不更新已写回值，下次写回时重试
+            jdbcTemplate.batchUpdate(FLUSH_SQL, updates);
+            for (Map.Entry<Counter, Long> entry : totals.entrySet()) {
+                entry.getKey().flushed = entry.getValue();
+            }
+            for (Long documentId : deltas.keySet()) {
+                documentMetadataCache.invalidate(documentId);
+            }
+        }
+        for (Iterator<Counter> iterator = retired.iterator(); iterator.hasNext(); ) {
+            Counter counter = iterator.next();
+            if (now - counter.retiredAt > RETIRED_GRACE_NANOS && counter.total.sum() == counter.flushed) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.documentmanager.entity;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * 内容寻址的物理文件记录，以内容哈希为键，由多个文档记录共享
+ */
+@Entity
+@Table(name = "blobs", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_blobs_hash", columnNames = {"hash_algorithm", "file_hash"})
+})
+public class Blob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "file_hash", nullable = false)
+    private String fileHash;
+
+    @Column(name = "hash_algorithm", nullable = false)
+    private String hashAlgorithm;
+
+    @Column(name = "stored_path", nullable = false)
+    private String storedPath;
+
+    @Column(name = "file_size", nullable = false)
+    private Long fileSize; // 原始内容大小
+
+    @Column(name = "storage_codec")
+    private String storageCodec; // 存储编码，空表示原样存储
+
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount = 0;
+
+    @Column(name = "create_time", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createTime;
+
+    // Constructors
+    public Blob() {}
+
+    public Blob(String fileHash, String hashAlgorithm, String storedPath, Long fileSize, String storageCodec) {
+        this.fileHash = fileHash;
+        this.hashAlgorithm = hashAlgorithm;
+        this.storedPath = storedPath;
+        this.fileSize = fileSize;
+        this.storageCodec = storageCodec;
+        this.refCount = 1;
+        this.createTime = new Date();
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public void setFileHash(String fileHash) {
+        this.fileHash = fileHash;
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public void setHashAlgorithm(String hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    public String getStoredPath() {
+        return storedPath;
+    }
+
+    public void setStoredPath(String storedPath) {
+        this.storedPath = storedPath;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public Integer getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(Integer refCount) {
+        this.refCount = refCount;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    public String getStorageCodec() {
+        return storageCodec;
+    }
+
+    public void setStorageCodec(String storageCodec) {
+        this.storageCodec = storageCodec;
+    }
+}
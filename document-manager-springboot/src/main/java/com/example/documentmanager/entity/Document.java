@@ -1,10 +1,23 @@
 package com.example.documentmanager.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.persistence.*;
 import java.util.Date;
 
 @Entity
-@Table(name = "documents")
+@Table(name = "documents", indexes = {
+    // 同名同内容的版本查找（上传、秒传、合并）
+    @Index(name = "idx_documents_filename_hash", columnList = "filename, file_hash"),
+    // 按哈希查找上传中的记录（每个分片请求）以及按哈希查找
+    @Index(name = "idx_documents_hash_status", columnList = "file_hash, upload_status"),
+    @Index(name = "idx_documents_stored_filename", columnList = "stored_filename"),
+    @Index(name = "idx_documents_blob_id", columnList = "blob_id"),
+    // 键集分页：排序字段 + id
+    @Index(name = "idx_documents_upload_time_id", columnList = "upload_time, id"),
+    @Index(name = "idx_documents_file_size_id", columnList = "file_size, id"),
+    @Index(name = "idx_documents_download_count_id", columnList = "download_count, id")
+})
 public class Document {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -16,12 +29,18 @@ public class Document {
     @Column(name = "stored_filename", nullable = false)
     private String storedFilename;
 
+    @Column(name = "blob_id")
+    private Long blobId; // 关联的内容寻址物理文件
+
     @Column(name = "file_size", nullable = false)
     private Long fileSize;
 
     @Column(name = "file_hash", nullable = false)
     private String fileHash;
 
+    @Column(name = "hash_algorithm")
+    private String hashAlgorithm = "MD5"; // MD5, SHA256（为空的历史数据按MD5处理）
+
     @Column(name = "content_type")
     private String contentType;
 
@@ -47,6 +66,26 @@ public class Document {
     @Column(name = "uploaded_chunks")
     private Integer uploadedChunks = 0;
 
+    @Column(name = "chunk_size")
+    private Long chunkSize;
+
+    @Column(name = "upload_mode")
+    private String uploadMode; // chunked, direct
+
+    @Column(name = "tree_hash")
+    private String treeHash; // 由分片哈希构建的Merkle树根哈希
+
+    @Column(name = "chunk_hash_algorithm")
+    private String chunkHashAlgorithm; // 分片哈希算法：MD5, SHA256, CRC32
+
+    @JsonIgnore
+    @Lob
+    @Column(name = "chunk_bitmap", columnDefinition = "MEDIUMBLOB")
+    private byte[] chunkBitmap; // 已接收分片位图（分片上传期间维护，合并后清空）
+
+    @Column(name = "storage_codec")
+    private String storageCodec; // 存储编码：NONE（或空）, BLOCK_DEFLATE；fileSize和fileHash始终对应原始内容
+
     // Constructors
     public Document() {}
 
@@ -86,6 +125,14 @@ public class Document {
         this.storedFilename = storedFilename;
     }
 
+    public Long getBlobId() {
+        return blobId;
+    }
+
+    public void setBlobId(Long blobId) {
+        this.blobId = blobId;
+    }
+
     public Long getFileSize() {
         return fileSize;
     }
@@ -102,6 +149,14 @@ public class Document {
         this.fileHash = fileHash;
     }
 
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public void setHashAlgorithm(String hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
     public String getContentType() {
         return contentType;
     }
@@ -165,4 +220,52 @@ public class Document {
     public void setUploadedChunks(Integer uploadedChunks) {
         this.uploadedChunks = uploadedChunks;
     }
-}
\ No newline at end of file
+
+    public Long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(Long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public String getUploadMode() {
+        return uploadMode;
+    }
+
+    public void setUploadMode(String uploadMode) {
+        this.uploadMode = uploadMode;
+    }
+
+    public String getTreeHash() {
+        return treeHash;
+    }
+
+    public void setTreeHash(String treeHash) {
+        this.treeHash = treeHash;
+    }
+
+    public String getChunkHashAlgorithm() {
+        return chunkHashAlgorithm;
+    }
+
+    public void setChunkHashAlgorithm(String chunkHashAlgorithm) {
+        this.chunkHashAlgorithm = chunkHashAlgorithm;
+    }
+
+    public String getStorageCodec() {
+        return storageCodec;
+    }
+
+    public void setStorageCodec(String storageCodec) {
+        this.storageCodec = storageCodec;
+    }
+
+    public byte[] getChunkBitmap() {
+        return chunkBitmap;
+    }
+
+    public void setChunkBitmap(byte[] chunkBitmap) {
+        this.chunkBitmap = chunkBitmap;
+    }
+}
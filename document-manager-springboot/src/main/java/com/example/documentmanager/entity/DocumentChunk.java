@@ -4,10 +4,18 @@ import javax.persistence.*;
 import java.util.Date;
 
 @Entity
-@Table(name = "document_chunks")
+@Table(name = "document_chunks", uniqueConstraints = {
+    // 每个分片只有一条记录；同时作为按文档查找、按序号查找分片的索引
+    @UniqueConstraint(name = "uk_document_chunks_index", columnNames = {"document_id", "chunk_index"})
+})
 public class DocumentChunk {
+    /** 每次从id生成表预取的id数量，批量插入分片记录时无需逐条获取自增id */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "document_chunk_id")
+    @TableGenerator(name = "document_chunk_id", table = "id_generators", pkColumnName = "name",
+        valueColumnName = "next_val", pkColumnValue = "document_chunks", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @Column(name = "document_id", nullable = false)
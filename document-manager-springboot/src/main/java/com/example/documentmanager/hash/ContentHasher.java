@@ -0,0 +1,24 @@
+package com.example.documentmanager.hash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 增量内容哈希计算器，每个实例只用于一次计算且非线程安全
+ */
+public interface ContentHasher {
+
+    HashAlgorithm getAlgorithm();
+
+    void update(byte[] bytes, int offset, int length);
+
+    /**
+     * 消费缓冲区中 position 到 limit 之间的数据
+     */
+    void update(ByteBuffer buffer);
+
+    byte[] digest();
+
+    default String digestHex() {
+        return HexUtil.toHex(digest());
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.documentmanager.hash;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * CRC32哈希实现（JVM内建指令加速，适合分片校验）
+ */
+class Crc32Hasher implements ContentHasher {
+
+    private final CRC32 crc32 = new CRC32();
+
+    @Override
+    public HashAlgorithm getAlgorithm() {
+        return HashAlgorithm.CRC32;
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        crc32.update(bytes, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        crc32.update(buffer);
+    }
+
+    @Override
+    public byte[] digest() {
+        long value = crc32.getValue();
+        return new byte[] {
+            (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value
+        };
+    }
+}
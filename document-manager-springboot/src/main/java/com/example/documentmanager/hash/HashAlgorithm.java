@@ -0,0 +1,51 @@
+package com.example.documentmanager.hash;
+
+/**
+ * 支持的内容哈希算法
+ */
+public enum HashAlgorithm {
+    /** 兼容旧客户端（前端使用spark-md5计算文件哈希） */
+    MD5("MD5", true),
+    SHA256("SHA-256", true),
+    /** 非加密哈希，仅用于分片完整性校验 */
+    CRC32("CRC32", false);
+
+    private final String standardName;
+    private final boolean cryptographic;
+
+    HashAlgorithm(String standardName, boolean cryptographic) {
+        this.standardName = standardName;
+        this.cryptographic = cryptographic;
+    }
+
+    public String getStandardName() {
+        return standardName;
+    }
+
+    public boolean isCryptographic() {
+        return cryptographic;
+    }
+
+    public ContentHasher newHasher() {
+        if (this == CRC32) {
+            return new Crc32Hasher();
+        }
+        return new MessageDigestHasher(this);
+    }
+
+    /**
+     * 根据名称解析算法，兼容 "SHA-256"/"sha256" 等写法；为空时视为MD5（历史数据）
+     */
+    public static HashAlgorithm fromName(String name) {
+        if (name == null || name.isEmpty()) {
+            return MD5;
+        }
+        String normalized = name.replace("-", "").replace("_", "").toUpperCase();
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name().equals(normalized)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("不支持的哈希算法: " + name);
+    }
+}
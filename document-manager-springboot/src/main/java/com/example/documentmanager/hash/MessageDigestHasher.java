@@ -0,0 +1,43 @@
+package com.example.documentmanager.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 基于JDK MessageDigest的哈希实现（MD5、SHA-256）
+ */
+class MessageDigestHasher implements ContentHasher {
+
+    private final HashAlgorithm algorithm;
+    private final MessageDigest messageDigest;
+
+    MessageDigestHasher(HashAlgorithm algorithm) {
+        this.algorithm = algorithm;
+        try {
+            this.messageDigest = MessageDigest.getInstance(algorithm.getStandardName());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(algorithm.getStandardName() + " algorithm not available", e);
+        }
+    }
+
+    @Override
+    public HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length) {
+        messageDigest.update(bytes, offset, length);
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        messageDigest.update(buffer);
+    }
+
+    @Override
+    public byte[] digest() {
+        return messageDigest.digest();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.documentmanager.repository;
+
+import com.example.documentmanager.entity.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.Optional;
+
+@Repository
+public interface BlobRepository extends JpaRepository<Blob, Long> {
+    Optional<Blob> findByFileHashAndHashAlgorithm(String fileHash, String hashAlgorithm);
+
+    /**
+     * 原子增加引用计数；引用计数已归零（正在回收）的记录不会被复活
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Blob b set b.refCount = b.refCount + 1 where b.id = :id and b.refCount > 0")
+    int incrementRefCount(@Param("id") Long id);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Blob b set b.refCount = b.refCount - 1 where b.id = :id and b.refCount > 0")
+    int decrementRefCount(@Param("id") Long id);
+
+    /**
+     * 插入新记录，相同内容已登记时不做任何修改；唯一约束冲突不会抛出异常，不影响所在事务
+     * 并发插入相同内容时后到的语句等待先到的事务结束再判断是否冲突
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "insert into blobs (file_hash, hash_algorithm, stored_path, file_size, storage_codec, "
+        + "ref_count, create_time) values (:fileHash, :hashAlgorithm, :storedPath, :fileSize, :storageCodec, 1, "
+        + ":createTime) on duplicate key update id = id", nativeQuery = true)
+    int insertIfAbsent(@Param("fileHash") String fileHash, @Param("hashAlgorithm") String hashAlgorithm,
+                       @Param("storedPath") String storedPath, @Param("fileSize") Long fileSize,
+                       @Param("storageCodec") String storageCodec, @Param("createTime") Date createTime);
+}
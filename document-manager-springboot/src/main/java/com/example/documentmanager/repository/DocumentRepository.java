@@ -2,16 +2,26 @@ package com.example.documentmanager.repository;
 
 import com.example.documentmanager.entity.Document;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface DocumentRepository extends JpaRepository<Document, Long> {
+public interface DocumentRepository extends JpaRepository<Document, Long>, DocumentRepositoryCustom {
     List<Document> findByFileHash(String fileHash);
     List<Document> findByFilename(String filename);
-    Optional<Document> findByFilenameAndFileHash(String filename, String fileHash);
+    Optional<Document> findFirstByFilenameAndFileHashAndUploadStatusOrderByVersionDesc(String filename, String fileHash, String uploadStatus);
     Optional<Document> findByFileHashAndUploadStatus(String fileHash, String uploadStatus);
     List<Document> findByUploadStatus(String uploadStatus);
-}
\ No newline at end of file
+    long countByStoredFilename(String storedFilename);
+    List<Document> findTop500ByBlobIdIsNullAndUploadStatusAndIdGreaterThanOrderById(String uploadStatus, Long id);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Document d set d.uploadedChunks = :uploadedChunks, d.chunkBitmap = :chunkBitmap where d.id = :id")
+    int updateUploadProgress(@Param("id") Long id, @Param("uploadedChunks") Integer uploadedChunks,
+                             @Param("chunkBitmap") byte[] chunkBitmap);
+}
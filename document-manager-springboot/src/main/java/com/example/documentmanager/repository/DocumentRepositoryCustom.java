@@ -0,0 +1,19 @@
+package com.example.documentmanager.repository;
+
+import java.util.List;
+import java.util.Map;
+
+public interface DocumentRepositoryCustom {
+    /**
+     * 基于键集（seek）的分页查询，只选择指定列，返回轻量的字段映射而非托管实体
+     *
+     * @param fields    需要返回的实体属性名
+     * @param sortField 排序属性（uploadTime、fileSize、downloadCount），以id作为次级排序
+     * @param ascending 是否升序
+     * @param afterValue 上一页最后一条记录的排序属性值，为null时从第一页开始
+     * @param afterId   上一页最后一条记录的id
+     * @param limit     最多返回的记录数
+     */
+    List<Map<String, Object>> findSummaries(List<String> fields, String sortField, boolean ascending,
+                                            Object afterValue, Long afterId, int limit);
+}
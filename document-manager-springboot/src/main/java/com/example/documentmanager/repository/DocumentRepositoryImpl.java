@@ -0,0 +1,72 @@
+package com.example.documentmanager.repository;
+
+import com.example.documentmanager.entity.Document;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DocumentRepository 的自定义查询实现
+ */
+public class DocumentRepositoryImpl implements DocumentRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<Map<String, Object>> findSummaries(List<String> fields, String sortField, boolean ascending,
+                                                   Object afterValue, Long afterId, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Document> root = query.from(Document.class);
+
+        List<Selection<?>> selections = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            selections.add(root.get(field).alias(field));
+        }
+        query.multiselect(selections);
+
+        Path sortPath = root.get(sortField);
+        Path<Long> idPath = root.get("id");
+        if (afterValue != null && afterId != null) {
+            // (sortField, id) 严格位于游标之后
+            Comparable value = (Comparable) afterValue;
+            Predicate after = ascending
+                ? cb.or(cb.greaterThan(sortPath, value),
+                        cb.and(cb.equal(sortPath, value), cb.greaterThan(idPath, afterId)))
+                : cb.or(cb.lessThan(sortPath, value),
+                        cb.and(cb.equal(sortPath, value), cb.lessThan(idPath, afterId)));
+            query.where(after);
+        }
+        query.orderBy(ascending
+            ? new Order[] {cb.asc(sortPath), cb.asc(idPath)}
+            : new Order[] {cb.desc(sortPath), cb.desc(idPath)});
+
+        List<Tuple> tuples = entityManager.createQuery(query)
+            .setMaxResults(limit)
+            .getResultList();
+
+        List<Map<String, Object>> rows = new ArrayList<>(tuples.size());
+        for (Tuple tuple : tuples) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (String field : fields) {
+                row.put(field, tuple.get(field));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
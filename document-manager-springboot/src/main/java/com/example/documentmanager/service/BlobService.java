@@ -0,0 +1,32 @@
+package com.example.documentmanager.service;
+
+import com.example.documentmanager.compress.StorageCodec;
+import com.example.documentmanager.entity.Blob;
+import com.example.documentmanager.hash.HashAlgorithm;
+
+import java.util.Optional;
+
+public interface BlobService {
+    /**
+     * 查找已存储的相同内容并增加一次引用
+     */
+    Optional<Blob> acquire(String fileHash, HashAlgorithm algorithm);
+
+    /**
+     * 登记新写入的物理文件，初始引用计数为1；fileSize为原始内容大小
+     * 相同内容已被并发登记时改为引用已有记录，此时返回记录的storedPath与传入的不同，调用方应删除自己写入的文件；
+     * 已有记录正在被回收时返回空，调用方可稍后重试。唯一约束冲突不会使调用方的事务被标记为回滚
+     */
+    Optional<Blob> register(String fileHash, HashAlgorithm algorithm, String storedPath, Long fileSize,
+                            StorageCodec codec);
+
+    /**
+     * 释放一次引用，引用计数归零时在事务提交后删除物理文件
+     */
+    void release(Long blobId);
+
+    /**
+     * 为没有关联Blob的历史文档补建内容寻址记录，返回处理的文档数
+     */
+    int backfillLegacyDocuments();
+}
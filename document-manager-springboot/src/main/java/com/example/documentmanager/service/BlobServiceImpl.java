@@ -0,0 +1,145 @@
+package com.example.documentmanager.service;
+
+import com.example.documentmanager.compress.CompressedVariantStore;
+import com.example.documentmanager.compress.StorageCodec;
+import com.example.documentmanager.entity.Blob;
+import com.example.documentmanager.entity.Document;
+import com.example.documentmanager.hash.HashAlgorithm;
+import com.example.documentmanager.repository.BlobRepository;
+import com.example.documentmanager.repository.DocumentRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+@Service
+@Transactional
+public class BlobServiceImpl implements BlobService {
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private DocumentRepository documentRepository;
+
+    @Autowired
+    private CompressedVariantStore compressedVariantStore;
+
+    @Value("${file.upload-dir}")
+    private String uploadDir;
+
+    @Override
+    public Optional<Blob> acquire(String fileHash, HashAlgorithm algorithm) {
+        Optional<Blob> blob = blobRepository.findByFileHashAndHashAlgorithm(fileHash, algorithm.name());
+        if (blob.isPresent() && blobRepository.incrementRefCount(blob.get().getId()) > 0) {
+            return blobRepository.findById(blob.get().getId());
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Blob> register(String fileHash, HashAlgorithm algorithm, String storedPath, Long fileSize,
+                                   StorageCodec codec) {
+        // 冲突时不插入也不抛出异常：saveAndFlush的约束冲突会把调用方所在的事务标记为只能回滚
+        blobRepository.insertIfAbsent(fileHash, algorithm.name(), storedPath, fileSize,
+            codec.isIdentity() ? null : codec.name(), new Date());
+        Optional<Blob> blob = blobRepository.findByFileHashAndHashAlgorithm(fileHash, algorithm.name());
+        if (!blob.isPresent() || blob.get().getStoredPath().equals(storedPath)) {
+            return blob;
+        }
+        // 相同内容已由其他上传登记：引用已有记录
+        return acquire(fileHash, algorithm);
+    }
+
+    @Override
+    public void release(Long blobId) {
+        if (blobRepository.decrementRefCount(blobId) == 0) {
+            return;
+        }
+        Optional<Blob> blob = blobRepository.findById(blobId);
+        if (blob.isPresent() && blob.get().getRefCount() <= 0) {
+            Blob released = blob.get();
+            blobRepository.delete(released);
+            deleteFileAfterCommit(released.getStoredPath());
+            runAfterCommit(() -> compressedVariantStore.deleteVariants(
+                released.getHashAlgorithm(), released.getFileHash()));
+        }
+    }
+
+    @Override
+    public int backfillLegacyDocuments() {
+        int processed = 0;
+        long lastId = 0;
+        List<Document> documents;
+        do {
+            documents = documentRepository
+                .findTop500ByBlobIdIsNullAndUploadStatusAndIdGreaterThanOrderById("completed", lastId);
+            for (Document document : documents) {
+                lastId = document.getId();
+                HashAlgorithm algorithm = HashAlgorithm.fromName(document.getHashAlgorithm());
+                Optional<Blob> existing = acquire(document.getFileHash(), algorithm);
+                if (existing.isPresent()) {
+                    // 相同内容已有物理文件：指向已有文件，原文件无人引用时删除
+                    String oldStoredFilename = document.getStoredFilename();
+                    document.setBlobId(existing.get().getId());
+                    document.setStoredFilename(existing.get().getStoredPath());
+                    document.setStorageCodec(existing.get().getStorageCodec());
+                    documentRepository.save(document);
+                    if (!oldStoredFilename.equals(existing.get().getStoredPath())
+                            && documentRepository.countByStoredFilename(oldStoredFilename) == 0) {
+                        deleteFileAfterCommit(oldStoredFilename);
+                    }
+                } else if (Files.exists(Paths.get(uploadDir, document.getStoredFilename()))) {
+                    Optional<Blob> blob = register(document.getFileHash(), algorithm,
+                        document.getStoredFilename(), document.getFileSize(), StorageCodec.NONE);
+                    if (!blob.isPresent()) {
+                        continue;
+                    }
+                    document.setBlobId(blob.get().getId());
+                    document.setStoredFilename(blob.get().getStoredPath());
+                    document.setStorageCodec(blob.get().getStorageCodec());
+                    documentRepository.save(document);
+                } else {
+                    continue;
+                }
+                processed++;
+            }
+            documentRepository.flush();
+        } while (!documents.isEmpty());
+        return processed;
+    }
+
+    private void deleteFileAfterCommit(String storedPath) {
+        Runnable deleteFile = () -> {
+            try {
+                Files.deleteIfExists(Paths.get(uploadDir, storedPath));
+            } catch (IOException e) {
+                // 记录日志但不中断删除操作
+                e.printStackTrace();
+            }
+        };
+        runAfterCommit(deleteFile);
+    }
+
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
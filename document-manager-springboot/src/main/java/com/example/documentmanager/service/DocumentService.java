@@ -6,22 +6,43 @@ import org.springframework.web.multipart.MultipartFile;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
 public interface DocumentService {
     Document saveDocument(MultipartFile file) throws IOException;
+    Document saveDocument(String filename, String contentType, InputStream inputStream) throws IOException;
     List<Document> getAllDocuments();
+    Map<String, Object> getDocumentPage(String sort, String order, String cursor, Integer size, String fields);
     Document getDocumentById(Long id);
     void deleteDocument(Long id);
-    void downloadDocument(Long id, HttpServletResponse response) throws IOException;
+    void downloadDocument(Long id, HttpServletRequest request, HttpServletResponse response) throws IOException;
+    
+    // 秒传：内容已存储时只创建文档记录
+    Map<String, Object> instantUpload(String filename, String fileHash, Long fileSize,
+                                      String hashAlgorithm, String contentType);
     
     // 分片上传相关方法
-    Map<String, Object> initChunkUpload(String filename, String fileHash, Long fileSize, Integer totalChunks) throws IOException;
+    Map<String, Object> initChunkUpload(String filename, String fileHash, Long fileSize, Integer totalChunks,
+                                        Long chunkSize, String uploadMode, String hashAlgorithm,
+                                        String contentType, String clientAddress) throws IOException;
     Map<String, Object> uploadChunk(String fileHash, Integer chunkIndex, MultipartFile chunk) throws IOException;
-    Document mergeChunks(String fileHash, String filename, String contentType) throws IOException;
+    Map<String, Object> uploadChunk(String fileHash, Integer chunkIndex, long size,
+                                    InputStream inputStream) throws IOException;
+    Document mergeChunks(String fileHash, String filename, String contentType,
+                         String treeHash) throws IOException;
     Map<String, Object> checkUploadStatus(String fileHash);
     
+    // 元数据缓存统计
+    Map<String, Object> getCacheStats();
+    
+    // 完整性校验
+    Map<String, Object> verifyDocument(Long id) throws IOException;
+    
     // 流式下载
     void downloadDocumentStream(Long id, HttpServletRequest request, HttpServletResponse response) throws IOException;
+    
+    // 异步非阻塞下载
+    void downloadDocumentAsync(Long id, HttpServletRequest request, HttpServletResponse response) throws IOException;
 }
\ No newline at end of file
@@ -1,22 +1,51 @@
 package com.example.documentmanager.service;
 
+import com.example.documentmanager.cache.ContentCache;
+import com.example.documentmanager.cache.DocumentMetadataCache;
+import com.example.documentmanager.compress.BlockCompressedOutputStream;
+import com.example.documentmanager.compress.CompressedVariantStore;
+import com.example.documentmanager.compress.StorageCodec;
+import com.example.documentmanager.compress.StorageCompressor;
+import com.example.documentmanager.counter.DownloadCounter;
+import com.example.documentmanager.entity.Blob;
 import com.example.documentmanager.entity.Document;
 import com.example.documentmanager.entity.DocumentChunk;
+import com.example.documentmanager.hash.ContentHasher;
+import com.example.documentmanager.hash.HashAlgorithm;
 import com.example.documentmanager.repository.DocumentChunkRepository;
 import com.example.documentmanager.repository.DocumentRepository;
+import com.example.documentmanager.transfer.AsyncFileSender;
+import com.example.documentmanager.transfer.ByteRange;
+import com.example.documentmanager.transfer.FileTransferEngine;
+import com.example.documentmanager.transfer.TransferLimiter;
+import com.example.documentmanager.transfer.TransferPermit;
+import com.example.documentmanager.upload.ChunkBitmap;
+import com.example.documentmanager.upload.ChunkSizeAdvisor;
+import com.example.documentmanager.upload.ChunkUploadTracker;
+import com.example.documentmanager.upload.UploadSession;
 import com.example.documentmanager.util.FileUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -35,75 +64,217 @@ public class DocumentServiceImpl implements DocumentService {
     @Autowired
     private DocumentChunkRepository documentChunkRepository;
 
+    @Autowired
+    private BlobService blobService;
+
+    @Autowired
+    private DownloadCounter downloadCounter;
+
+    @Autowired
+    private DocumentMetadataCache documentMetadataCache;
+
+    @Autowired
+    private ContentCache contentCache;
+
+    @Autowired
+    private FileTransferEngine fileTransferEngine;
+
+    @Autowired
+    private AsyncFileSender asyncFileSender;
+
+    @Autowired
+    private TransferLimiter transferLimiter;
+
+    @Autowired
+    private CompressedVariantStore compressedVariantStore;
+
+    @Autowired
+    private StorageCompressor storageCompressor;
+
+    @Autowired
+    private ChunkUploadTracker chunkUploadTracker;
+
+    @Autowired
+    private ChunkSizeAdvisor chunkSizeAdvisor;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @Value("${file.upload-dir}")
     private String uploadDir;
 
     @Value("${file.chunk-size:5242880}")
     private Long chunkSize; // 默认5MB
 
+    @Value("${file.hash.algorithm:MD5}")
+    private String fileHashAlgorithmName; // 服务端计算文件哈希使用的算法
+
+    @Value("${file.hash.chunk-algorithm:MD5}")
+    private String chunkHashAlgorithmName; // 分片校验使用的算法，可选用非加密的CRC32
+
+    @Value("${file.download.cache-control:public, max-age=3600}")
+    private String downloadCacheControl;
+
+    @Value("${file.hash.mmap-threshold:268435456}")
+    private Long mmapThreshold; // 不小于该大小的文件使用内存映射计算哈希，默认256MB
+
+    private HashAlgorithm fileHashAlgorithm;
+
+    private HashAlgorithm chunkHashAlgorithm;
+
     private static final String CHUNK_DIR = "chunks";
 
+    private static final String DIRECT_PART_FILENAME = "data.part";
+
+    private static final String UPLOAD_MODE_DIRECT = "direct";
+
+    private static final int MERGE_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int MAX_PAGE_SIZE = 500;
+
+    /**
+     * 分页列表默认返回的字段（不包含TEXT类型的description）
+     */
+    private static final List<String> DEFAULT_LIST_FIELDS = Arrays.asList(
+        "id", "filename", "fileSize", "fileHash", "contentType", "uploadTime",
+        "downloadCount", "version", "uploadStatus");
+
+    /**
+     * 分页列表允许返回的字段
+     */
+    private static final Set<String> LISTABLE_FIELDS = new HashSet<>(Arrays.asList(
+        "id", "filename", "fileSize", "fileHash", "hashAlgorithm", "contentType", "uploadTime",
+        "downloadCount", "version", "description", "uploadStatus", "totalChunks", "uploadedChunks", "treeHash"));
+
+    /**
+     * 分页列表允许排序的字段
+     */
+    private static final Set<String> SORTABLE_FIELDS = new HashSet<>(Arrays.asList(
+        "uploadTime", "fileSize", "downloadCount"));
+
+    @PostConstruct
+    public void initHashAlgorithms() {
+        fileHashAlgorithm = HashAlgorithm.fromName(fileHashAlgorithmName);
+        chunkHashAlgorithm = HashAlgorithm.fromName(chunkHashAlgorithmName);
+        if (!fileHashAlgorithm.isCryptographic()) {
+            // 文件哈希用于去重，必须使用加密哈希算法
+            throw new IllegalStateException("file.hash.algorithm 必须为加密哈希算法: " + fileHashAlgorithmName);
+        }
+    }
+
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Document saveDocument(MultipartFile file) throws IOException {
+        try (InputStream inputStream = file.getInputStream()) {
+            return saveDocument(file.getOriginalFilename(), file.getContentType(), inputStream);
+        }
+    }
+
+    /**
+     * 读取请求体期间不持有事务和数据库连接（限速或慢速客户端可能持续很久），
+     * 写入并计算哈希后再在短事务中登记Blob和创建文档记录
+     */
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Document saveDocument(String filename, String contentType, InputStream inputStream) throws IOException {
         // 创建存储目录
         String datePath = FileUtil.getDatePath();
         String fullPath = uploadDir + File.separator + datePath;
         FileUtil.createDirIfNotExists(fullPath);
 
         // 生成存储文件名
-        String storedFilename = FileUtil.generateStoredFilename(file.getOriginalFilename());
-
-        // 计算文件MD5值
-        String fileHash = FileUtil.calculateMD5(file.getInputStream());
-
-        // 检查是否已存在相同内容的文件（同名同内容处理）
-        Optional<Document> sameNameAndContent = documentRepository.findByFilenameAndFileHash(
-            file.getOriginalFilename(), fileHash);
-        
-        if (sameNameAndContent.isPresent()) {
-            // 同名同内容：复用文件，创建新记录，版本号+1
-            Document existingDoc = sameNameAndContent.get();
-            Document newDoc = new Document();
-            newDoc.setFilename(file.getOriginalFilename());
-            newDoc.setStoredFilename(existingDoc.getStoredFilename());
-            newDoc.setFileSize(existingDoc.getFileSize());
-            newDoc.setFileHash(fileHash);
-            newDoc.setContentType(file.getContentType());
-            newDoc.setUploadTime(new Date());
-            newDoc.setDownloadCount(0);
-            newDoc.setVersion(existingDoc.getVersion() + 1);
-            newDoc.setUploadStatus("completed");
-            return documentRepository.save(newDoc);
-        }
-        
-        // 检查是否存在相同内容但不同名的文件
-        List<Document> existingDocuments = documentRepository.findByFileHash(fileHash);
-        if (!existingDocuments.isEmpty()) {
-            // 同名不同内容：作为新文件保存（MD5不同说明内容不同）
-            // 这里existingDocuments实际上应该是空的，因为上面已经检查过同名同内容
-            // 但为了代码健壮性，保留这个检查
-        }
-        
-        // 同名不同内容或全新文件：正常保存
-        {
-            // 保存文件到磁盘
-            Path filePath = Paths.get(fullPath, storedFilename);
-            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
-            // 创建文档记录
-            Document document = new Document();
-            document.setFilename(file.getOriginalFilename());
-            document.setStoredFilename(datePath + File.separator + storedFilename);
-            document.setFileSize(file.getSize());
-            document.setFileHash(fileHash);
-            document.setContentType(file.getContentType());
-            document.setUploadTime(new Date());
-            document.setDownloadCount(0);
-            document.setVersion(1);
-            document.setUploadStatus("completed");
-
-            return documentRepository.save(document);
+        String storedFilename = FileUtil.generateStoredFilename(filename);
+
+        // 单次读取：边写入磁盘边计算哈希值；可压缩的内容直接以分块压缩格式写入
+        Path filePath = Paths.get(fullPath, storedFilename);
+        String fileHash;
+        long fileSize;
+        StorageCodec codec = storageCompressor.shouldCompress(contentType, filename)
+            ? StorageCodec.BLOCK_DEFLATE : StorageCodec.NONE;
+        try {
+            if (codec.isIdentity()) {
+                fileHash = FileUtil.copyAndCalculateHash(fileHashAlgorithm, inputStream, filePath);
+                fileSize = Files.size(filePath);
+            } else {
+                try (BlockCompressedOutputStream outputStream = storageCompressor.newOutputStream(filePath)) {
+                    fileHash = FileUtil.copyAndCalculateHash(fileHashAlgorithm, inputStream, outputStream);
+                    fileSize = outputStream.getOriginalSize();
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(filePath);
+            throw e;
+        }
+
+        String storedPath = datePath + File.separator + storedFilename;
+        Document document;
+        try {
+            document = transactionTemplate.execute(status -> {
+                // 内容寻址去重：相同内容已存储时只创建文档记录
+                Optional<Blob> blob = blobService.acquire(fileHash, fileHashAlgorithm);
+                if (!blob.isPresent()) {
+                    // 全新内容：登记Blob，相同内容已由并发上传登记时改为引用已有记录
+                    blob = blobService.register(fileHash, fileHashAlgorithm, storedPath, fileSize, codec);
+                }
+                return blob.map(b -> createDocumentForBlob(b, filename, contentType)).orElse(null);
+            });
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(filePath);
+            throw e;
+        }
+        if (document == null || !storedPath.equals(document.getStoredFilename())) {
+            // 引用了已有文件或相同内容正在被回收：删除刚写入的副本
+            Files.deleteIfExists(filePath);
+        }
+        if (document == null) {
+            throw new IOException("相同内容的文件正在删除，请稍后重试");
+        }
+        return document;
+    }
+
+    @Override
+    public Map<String, Object> instantUpload(String filename, String fileHash, Long fileSize,
+                                             String hashAlgorithm, String contentType) {
+        Map<String, Object> result = new HashMap<>();
+        
+        Optional<Blob> blob = blobService.acquire(fileHash, HashAlgorithm.fromName(hashAlgorithm));
+        if (!blob.isPresent()) {
+            result.put("exists", false);
+            return result;
+        }
+        if (!blob.get().getFileSize().equals(fileSize)) {
+            // 哈希相同但大小不一致，视为不同内容，需要完整上传
+            blobService.release(blob.get().getId());
+            result.put("exists", false);
+            return result;
         }
+        
+        result.put("exists", true);
+        result.put("document", createDocumentForBlob(blob.get(), filename, contentType));
+        return result;
+    }
+
+    /**
+     * 创建指向指定Blob的文档记录；同名同内容的文档已存在时版本号+1
+     */
+    private Document createDocumentForBlob(Blob blob, String filename, String contentType) {
+        Optional<Document> sameNameAndContent = documentRepository
+            .findFirstByFilenameAndFileHashAndUploadStatusOrderByVersionDesc(filename, blob.getFileHash(), "completed");
+        
+        Document document = new Document();
+        document.setFilename(filename);
+        document.setBlobId(blob.getId());
+        document.setStoredFilename(blob.getStoredPath());
+        document.setStorageCodec(blob.getStorageCodec());
+        document.setFileSize(blob.getFileSize());
+        document.setFileHash(blob.getFileHash());
+        document.setHashAlgorithm(blob.getHashAlgorithm());
+        document.setContentType(contentType);
+        document.setUploadTime(new Date());
+        document.setDownloadCount(0);
+        document.setVersion(sameNameAndContent.map(doc -> doc.getVersion() + 1).orElse(1));
+        document.setUploadStatus("completed");
+        return documentRepository.save(document);
     }
 
     @Override
@@ -111,100 +282,199 @@ public class DocumentServiceImpl implements DocumentService {
         return documentRepository.findAll();
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, Object> getDocumentPage(String sort, String order, String cursor, Integer size, String fields) {
+        if (!SORTABLE_FIELDS.contains(sort)) {
+            throw new IllegalArgumentException("不支持的排序字段: " + sort);
+        }
+        boolean ascending = "asc".equalsIgnoreCase(order);
+        int limit = size == null ? 50 : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        
+        // 解析需要返回的字段，id和排序字段始终返回（用于生成游标）
+        List<String> selectedFields = new ArrayList<>();
+        if (fields == null || fields.trim().isEmpty()) {
+            selectedFields.addAll(DEFAULT_LIST_FIELDS);
+        } else {
+            for (String field : fields.split(",")) {
+                String name = field.trim();
+                if (!LISTABLE_FIELDS.contains(name)) {
+                    throw new IllegalArgumentException("不支持的字段: " + name);
+                }
+                if (!selectedFields.contains(name)) {
+                    selectedFields.add(name);
+                }
+            }
+        }
+        if (!selectedFields.contains("id")) {
+            selectedFields.add(0, "id");
+        }
+        if (!selectedFields.contains(sort)) {
+            selectedFields.add(sort);
+        }
+        
+        // 解析游标：Base64编码的 "排序值:id"
+        Object afterValue = null;
+        Long afterId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = decoded.indexOf(':');
+                long value = Long.parseLong(decoded.substring(0, separator));
+                afterId = Long.parseLong(decoded.substring(separator + 1));
+                if ("uploadTime".equals(sort)) {
+                    afterValue = new Date(value);
+                } else if ("downloadCount".equals(sort)) {
+                    afterValue = (int) value;
+                } else {
+                    afterValue = value;
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的分页游标");
+            }
+        }
+        
+        // 多查询一条用于判断是否还有下一页
+        List<Map<String, Object>> rows = documentRepository.findSummaries(
+            selectedFields, sort, ascending, afterValue, afterId, limit + 1);
+        boolean hasMore = rows.size() > limit;
+        if (hasMore) {
+            rows = rows.subList(0, limit);
+        }
+        
+        String nextCursor = null;
+        if (hasMore) {
+            Map<String, Object> last = rows.get(rows.size() - 1);
+            Object sortValue = last.get(sort);
+            long value = sortValue instanceof Date ? ((Date) sortValue).getTime() : ((Number) sortValue).longValue();
+            nextCursor = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((value + ":" + last.get("id")).getBytes(StandardCharsets.UTF_8));
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("items", rows);
+        result.put("size", rows.size());
+        result.put("hasMore", hasMore);
+        result.put("nextCursor", nextCursor);
+        return result;
+    }
+
     @Override
     public Document getDocumentById(Long id) {
-        Optional<Document> document = documentRepository.findById(id);
-        return document.orElse(null);
+        return documentMetadataCache.get(id, key -> documentRepository.findById(key).orElse(null));
     }
 
     @Override
     public void deleteDocument(Long id) {
         Document document = getDocumentById(id);
         if (document != null) {
-            // 删除文件
-            String storedFilename = document.getStoredFilename();
-            Path filePath = Paths.get(uploadDir, storedFilename);
-            try {
-                Files.deleteIfExists(filePath);
-            } catch (IOException e) {
-                // 记录日志但不中断删除操作
-                e.printStackTrace();
+            if (document.getBlobId() != null) {
+                // 释放物理文件引用，引用计数归零时才删除文件
+                blobService.release(document.getBlobId());
+            } else if (documentRepository.countByStoredFilename(document.getStoredFilename()) <= 1) {
+                // 未关联Blob的历史文档：没有其他记录共享该文件时才删除
+                Path filePath = Paths.get(uploadDir, document.getStoredFilename());
+                try {
+                    Files.deleteIfExists(filePath);
+                } catch (IOException e) {
+                    // 记录日志但不中断删除操作
+                    e.printStackTrace();
+                }
+            }
+
+            if ("uploading".equals(document.getUploadStatus())) {
+                chunkUploadTracker.remove(document.getFileHash());
             }
 
             // 删除数据库记录
             documentRepository.deleteById(id);
+            documentMetadataCache.invalidate(id);
         }
     }
 
     @Override
-    public void downloadDocument(Long id, HttpServletResponse response) throws IOException {
-        Document document = getDocumentById(id);
-        if (document == null) {
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
-
-        // 增加下载次数
-        document.setDownloadCount(document.getDownloadCount() + 1);
-        documentRepository.save(document);
-
-        // 设置响应头
-        response.setContentType(document.getContentType());
-        response.setHeader("Content-Disposition", "attachment; filename=\"" + document.getFilename() + "\"");
-        response.setContentLengthLong(document.getFileSize());
-
-        // 写入文件内容
-        Path filePath = Paths.get(uploadDir, document.getStoredFilename());
-        if (Files.exists(filePath)) {
-            try (InputStream inputStream = Files.newInputStream(filePath);
-                 OutputStream outputStream = response.getOutputStream()) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-                outputStream.flush();
-            }
-        } else {
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-        }
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void downloadDocument(Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serveDocument(id, request, response, false, false);
     }
 
     @Override
-    public Map<String, Object> initChunkUpload(String filename, String fileHash, Long fileSize, Integer totalChunks) throws IOException {
+    public Map<String, Object> initChunkUpload(String filename, String fileHash, Long fileSize, Integer totalChunks,
+                                               Long chunkSize, String uploadMode, String hashAlgorithm,
+                                               String contentType, String clientAddress) throws IOException {
         Map<String, Object> result = new HashMap<>();
         
         // 检查是否已存在同名同内容的文件
-        Optional<Document> existingDoc = documentRepository.findByFilenameAndFileHash(filename, fileHash);
+        Optional<Document> existingDoc = documentRepository
+            .findFirstByFilenameAndFileHashAndUploadStatusOrderByVersionDesc(filename, fileHash, "completed");
         if (existingDoc.isPresent()) {
             // 同名同内容，直接返回已存在的文档
             result.put("exists", true);
             result.put("document", existingDoc.get());
-            result.put("uploadedChunks", new ArrayList<>());
+            putUploadProgress(result, new BitSet());
+            return result;
+        }
+        
+        // 不同名但内容已存储：只创建文档记录，无需传输数据（哈希相同但大小不一致时视为不同内容，同秒传）
+        Optional<Blob> existingBlob = blobService.acquire(fileHash, HashAlgorithm.fromName(hashAlgorithm));
+        if (existingBlob.isPresent() && !existingBlob.get().getFileSize().equals(fileSize)) {
+            blobService.release(existingBlob.get().getId());
+            existingBlob = Optional.empty();
+        }
+        if (existingBlob.isPresent()) {
+            // 客户端未提供内容类型时按文件名推断
+            if (contentType == null || contentType.isEmpty()) {
+                contentType = MediaTypeFactory.getMediaType(filename)
+                    .map(MediaType::toString)
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            }
+            result.put("exists", true);
+            result.put("document", createDocumentForBlob(existingBlob.get(), filename, contentType));
+            putUploadProgress(result, new BitSet());
             return result;
         }
         
         // 检查是否有未完成的上传（断点续传）
-        Optional<Document> uploadingDoc = documentRepository.findByFileHashAndUploadStatus(fileHash, "uploading");
-        if (uploadingDoc.isPresent()) {
-            Document doc = uploadingDoc.get();
-            List<DocumentChunk> uploadedChunks = documentChunkRepository
-                .findByDocumentIdAndUploadStatusOrderByChunkIndex(doc.getId(), "completed");
-            List<Integer> chunkIndices = uploadedChunks.stream()
-                .map(DocumentChunk::getChunkIndex)
-                .collect(Collectors.toList());
-            
+        UploadSession uploadingSession = chunkUploadTracker.getSession(fileHash);
+        if (uploadingSession != null) {
             result.put("exists", false);
             result.put("resume", true);
-            result.put("documentId", doc.getId());
-            result.put("uploadedChunks", chunkIndices);
+            result.put("documentId", uploadingSession.getDocumentId());
+            putUploadProgress(result, uploadingSession.getReceived());
+            result.put("uploadMode", uploadingSession.getUploadMode());
+            if (uploadingSession.getChunkSize() != null) {
+                // 续传必须沿用创建时的分片方案
+                result.put("chunkSize", uploadingSession.getChunkSize());
+                result.put("totalChunks", uploadingSession.getTotalChunks());
+            }
+            result.put("maxParallel", chunkSizeAdvisor.recommendParallelism());
             return result;
         }
         
+        boolean direct = UPLOAD_MODE_DIRECT.equals(uploadMode);
+        // 客户端未指定分片数时由服务端决定分片方案（分片大小由客户端指定时沿用）
+        boolean planned = totalChunks == null;
+        if (planned) {
+            if (chunkSize == null || chunkSize <= 0) {
+                chunkSize = chunkSizeAdvisor.recommendChunkSize(clientAddress, fileSize);
+            }
+            totalChunks = Math.toIntExact(fileSize == 0 ? 0 : (fileSize + chunkSize - 1) / chunkSize);
+        } else if (direct) {
+            if (chunkSize == null || chunkSize <= 0) {
+                chunkSize = this.chunkSize;
+            }
+            long expectedChunks = fileSize == 0 ? 0 : (fileSize + chunkSize - 1) / chunkSize;
+            if (totalChunks == null || totalChunks != expectedChunks) {
+                throw new IOException("分片数量与文件大小、分片大小不匹配");
+            }
+        }
+        
         // 创建新的上传记录
         Document document = new Document();
         document.setFilename(filename);
         document.setFileHash(fileHash);
+        document.setHashAlgorithm(HashAlgorithm.fromName(hashAlgorithm).name());
+        document.setChunkHashAlgorithm(chunkHashAlgorithm.name());
         document.setFileSize(fileSize);
         document.setTotalChunks(totalChunks);
         document.setUploadedChunks(0);
@@ -220,83 +490,192 @@ public class DocumentServiceImpl implements DocumentService {
         String chunkDir = uploadDir + File.separator + CHUNK_DIR + File.separator + fileHash;
         FileUtil.createDirIfNotExists(chunkDir);
         
+        if (direct) {
+            // 直写模式：预分配稀疏目标文件，分片按偏移量直接写入
+            document.setUploadMode(UPLOAD_MODE_DIRECT);
+            document.setChunkSize(chunkSize);
+            Path partPath = Paths.get(chunkDir, DIRECT_PART_FILENAME);
+            try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+                if (fileSize > 0 && channel.size() < fileSize) {
+                    channel.write(ByteBuffer.wrap(new byte[1]), fileSize - 1);
+                }
+            }
+        } else {
+            document.setUploadMode("chunked");
+            if (planned) {
+                // 记录服务端决定的分片大小，用于校验分片和续传
+                document.setChunkSize(chunkSize);
+            }
+        }
+        
         document = documentRepository.save(document);
         
         result.put("exists", false);
         result.put("resume", false);
         result.put("documentId", document.getId());
-        result.put("uploadedChunks", new ArrayList<>());
+        putUploadProgress(result, new BitSet());
+        result.put("uploadMode", document.getUploadMode());
+        if (document.getChunkSize() != null) {
+            result.put("chunkSize", document.getChunkSize());
+            result.put("totalChunks", totalChunks);
+        }
+        // 未指定分片方案的客户端可参考的建议值
+        result.put("recommendedChunkSize", chunkSizeAdvisor.recommendChunkSize(clientAddress, fileSize));
+        result.put("maxParallel", chunkSizeAdvisor.recommendParallelism());
         return result;
     }
 
     @Override
     public Map<String, Object> uploadChunk(String fileHash, Integer chunkIndex, MultipartFile chunk) throws IOException {
+        try (InputStream inputStream = chunk.getInputStream()) {
+            return uploadChunk(fileHash, chunkIndex, chunk.getSize(), inputStream);
+        }
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED) // 限速读取请求体期间不占用数据库连接
+    public Map<String, Object> uploadChunk(String fileHash, Integer chunkIndex, long size,
+                                           InputStream inputStream) throws IOException {
         Map<String, Object> result = new HashMap<>();
         
-        // 查找上传中的文档
-        Optional<Document> docOpt = documentRepository.findByFileHashAndUploadStatus(fileHash, "uploading");
-        if (!docOpt.isPresent()) {
+        // 查找上传会话（内存中的分片位图，首次访问时从数据库加载）
+        UploadSession session = chunkUploadTracker.getSession(fileHash);
+        if (session == null) {
             result.put("success", false);
             result.put("message", "未找到上传记录");
             return result;
         }
+        if (chunkIndex < 0 || chunkIndex >= session.getTotalChunks()) {
+            result.put("success", false);
+            result.put("message", "分片大小或序号不正确");
+            return result;
+        }
         
-        Document document = docOpt.get();
-        
-        // 检查分片是否已存在
-        Optional<DocumentChunk> existingChunk = documentChunkRepository
-            .findByDocumentIdAndChunkIndex(document.getId(), chunkIndex);
+        // 申请写入权：已接收的分片直接跳过，同一分片的并发请求只允许一个写入
+        switch (session.claim(chunkIndex)) {
+            case RECEIVED:
+                // 分片已存在，跳过
+                result.put("success", true);
+                result.put("message", "分片已存在");
+                result.put("skipped", true);
+                return result;
+            case IN_PROGRESS:
+                result.put("success", false);
+                result.put("message", "该分片正在上传中");
+                result.put("inProgress", true);
+                return result;
+            case CLOSED:
+                result.put("success", false);
+                result.put("message", "上传正在合并或已结束");
+                return result;
+            default:
+                break;
+        }
         
-        if (existingChunk.isPresent() && "completed".equals(existingChunk.get().getUploadStatus())) {
-            // 分片已存在，跳过
-            result.put("success", true);
-            result.put("message", "分片已存在");
-            result.put("skipped", true);
+        DocumentChunk documentChunk = null;
+        chunkSizeAdvisor.chunkStarted();
+        try {
+            documentChunk = storeChunk(session, chunkIndex, size, inputStream);
+        } finally {
+            if (documentChunk == null) {
+                // 写入失败或大小不符：释放写入权，客户端可以重新上传该分片
+                session.abandon(chunkIndex);
+            }
+            chunkSizeAdvisor.chunkFinished();
+        }
+        if (documentChunk == null) {
+            result.put("success", false);
+            result.put("message", "分片大小或序号不正确");
             return result;
         }
         
-        // 保存分片
-        String chunkDir = uploadDir + File.separator + CHUNK_DIR + File.separator + fileHash;
-        FileUtil.createDirIfNotExists(chunkDir);
-        String chunkFilename = chunkIndex + ".chunk";
-        Path chunkPath = Paths.get(chunkDir, chunkFilename);
-        
-        // 保存分片文件
-        Files.copy(chunk.getInputStream(), chunkPath, StandardCopyOption.REPLACE_EXISTING);
+        // 登记分片：记录先保存在会话中，攒够一批后与上传进度一起写入数据库
+        chunkUploadTracker.complete(session, documentChunk);
         
-        // 计算分片MD5（从保存的文件计算）
-        String chunkHash = FileUtil.calculateMD5(Files.newInputStream(chunkPath));
+        result.put("success", true);
+        result.put("message", "分片上传成功");
+        result.put("uploadedChunks", session.getReceivedCount());
+        result.put("totalChunks", session.getTotalChunks());
+        return result;
+    }
+
+    /**
+     * 写入分片内容并计算分片哈希；分片大小不符时返回null
+     * 调用方已获得该分片的写入权，不会有其他请求同时写入同一分片
+     */
+    private DocumentChunk storeChunk(UploadSession session, int chunkIndex, long size,
+                                     InputStream inputStream) throws IOException {
+        String chunkDir = uploadDir + File.separator + CHUNK_DIR + File.separator + session.getFileHash();
+        FileUtil.createDirIfNotExists(chunkDir);
+        Path chunkPath;
+        String chunkHash;
+        HashAlgorithm algorithm = HashAlgorithm.fromName(session.getChunkHashAlgorithm());
         
-        // 保存分片记录
-        DocumentChunk documentChunk;
-        if (existingChunk.isPresent()) {
-            documentChunk = existingChunk.get();
+        if (UPLOAD_MODE_DIRECT.equals(session.getUploadMode())) {
+            // 直写模式：分片直接写入预分配文件的对应偏移量，不同分片写入互不重叠的区域
+            long offset = (long) chunkIndex * session.getChunkSize();
+            long expectedSize = Math.min(session.getChunkSize(), session.getFileSize() - offset);
+            // size为-1表示长度未知（如分块传输编码），写入时最多读取expectedSize字节，之后再按实际字节数校验
+            if (expectedSize <= 0 || (size >= 0 && size != expectedSize)) {
+                return null;
+            }
+            chunkPath = Paths.get(chunkDir, DIRECT_PART_FILENAME);
+            // 超出分片大小的请求体不会写入其他分片的区域或文件末尾之后
+            CountingInputStream countingStream = new CountingInputStream(bounded(inputStream, expectedSize));
+            try (FileChannel channel = FileChannel.open(chunkPath, StandardOpenOption.WRITE)) {
+                chunkHash = FileUtil.writeAtAndCalculateHash(algorithm, countingStream, channel, offset);
+            }
+            size = countingStream.getByteCount();
+            if (size != expectedSize || inputStream.read() != -1) {
+                return null;
+            }
+        } else if (session.getChunkSize() != null) {
+            // 服务端决定了分片大小：除最后一个分片外大小必须一致，否则合并结果错位
+            long offset = (long) chunkIndex * session.getChunkSize();
+            long expectedSize = Math.min(session.getChunkSize(), session.getFileSize() - offset);
+            if (expectedSize <= 0 || (size >= 0 && size != expectedSize)) {
+                return null;
+            }
+            chunkPath = Paths.get(chunkDir, chunkIndex + ".chunk");
+            chunkHash = FileUtil.copyAndCalculateHash(algorithm, bounded(inputStream, expectedSize), chunkPath);
+            size = Files.size(chunkPath);
+            if (size != expectedSize || inputStream.read() != -1) {
+                Files.deleteIfExists(chunkPath);
+                return null;
+            }
         } else {
-            documentChunk = new DocumentChunk();
-            documentChunk.setDocumentId(document.getId());
-            documentChunk.setChunkIndex(chunkIndex);
+            // 保存分片文件，同时计算分片哈希
+            chunkPath = Paths.get(chunkDir, chunkIndex + ".chunk");
+            chunkHash = FileUtil.copyAndCalculateHash(algorithm, inputStream, chunkPath);
+            size = Files.size(chunkPath);
         }
         
-        documentChunk.setChunkSize(chunk.getSize());
-        documentChunk.setChunkHash(chunkHash);
-        documentChunk.setStoredPath(chunkPath.toString());
+        DocumentChunk documentChunk = new DocumentChunk(session.getDocumentId(), chunkIndex, size,
+            chunkHash, chunkPath.toString());
         documentChunk.setUploadStatus("completed");
         documentChunk.setUploadTime(new Date());
-        documentChunkRepository.save(documentChunk);
-        
-        // 更新文档的上传进度
-        document.setUploadedChunks(document.getUploadedChunks() + 1);
-        documentRepository.save(document);
-        
-        result.put("success", true);
-        result.put("message", "分片上传成功");
-        result.put("uploadedChunks", document.getUploadedChunks());
-        result.put("totalChunks", document.getTotalChunks());
-        return result;
+        return documentChunk;
     }
 
     @Override
-    public Document mergeChunks(String fileHash, String filename, String contentType) throws IOException {
+    public Document mergeChunks(String fileHash, String filename, String contentType,
+                               String treeHash) throws IOException {
+        UploadSession session = chunkUploadTracker.getSession(fileHash);
+        if (session == null) {
+            throw new IOException("未找到上传记录");
+        }
+        // 关闭会话：等所有正在写入的分片结束后才能合并，合并期间到达的分片被拒绝；
+        // 同一文件的并发合并请求只有一个能通过
+        if (!session.close()) {
+            throw new IOException("分片仍在上传中或正在合并，请稍后重试");
+        }
+        // 无论合并成功与否，事务结束后丢弃内存会话，之后按数据库中的状态重新加载
+        chunkUploadTracker.removeAfterCompletion(fileHash);
+        
+        // 先将内存中尚未写入的分片记录写入数据库
+        chunkUploadTracker.flush(session);
+        
         // 查找上传中的文档
         Optional<Document> docOpt = documentRepository.findByFileHashAndUploadStatus(fileHash, "uploading");
         if (!docOpt.isPresent()) {
@@ -313,6 +692,24 @@ public class DocumentServiceImpl implements DocumentService {
             throw new IOException("分片数量不完整");
         }
         
+        // 由分片哈希计算Merkle树根哈希（O(分片数)，无需读取文件内容）
+        // 叶子是分片哈希本身，分片使用非加密算法（CRC32）时可以构造出相同的树，不计算也不接受树哈希
+        HashAlgorithm chunkAlgorithm = HashAlgorithm.fromName(document.getChunkHashAlgorithm());
+        String computedTreeHash = null;
+        if (chunkAlgorithm.isCryptographic()) {
+            computedTreeHash = FileUtil.calculateTreeHash(chunkAlgorithm, chunks.stream()
+                .map(DocumentChunk::getChunkHash)
+                .collect(Collectors.toList()));
+        }
+        if (treeHash != null && !treeHash.isEmpty()) {
+            if (computedTreeHash == null) {
+                throw new IOException("分片哈希算法" + chunkAlgorithm + "不支持树哈希校验");
+            }
+            if (!treeHash.equalsIgnoreCase(computedTreeHash)) {
+                throw new IOException("分片树哈希校验失败");
+            }
+        }
+        
         // 创建存储目录
         String datePath = FileUtil.getDatePath();
         String fullPath = uploadDir + File.separator + datePath;
@@ -322,31 +719,84 @@ public class DocumentServiceImpl implements DocumentService {
         String storedFilename = FileUtil.generateStoredFilename(filename);
         Path mergedFilePath = Paths.get(fullPath, storedFilename);
         
-        // 合并分片
-        try (FileChannel outChannel = FileChannel.open(mergedFilePath, 
-                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-            
-            for (DocumentChunk chunk : chunks) {
-                Path chunkPath = Paths.get(chunk.getStoredPath());
-                try (FileChannel inChannel = FileChannel.open(chunkPath, StandardOpenOption.READ)) {
-                    inChannel.transferTo(0, inChannel.size(), outChannel);
-                }
+        // 全量校验：内容寻址存储以fileHash为键，复用或登记前必须确认内容与客户端声明的哈希一致，
+        // 否则客户端可以把任意内容登记在他人文件的哈希下。校验在移动直写文件之前进行，失败时可以重新上传。
+        // 直写模式下分片已在预分配文件中，校验元数据后读取一遍计算哈希；否则在合并的同一次读取中计算
+        HashAlgorithm fileAlgorithm = HashAlgorithm.fromName(document.getHashAlgorithm());
+        boolean direct = UPLOAD_MODE_DIRECT.equals(document.getUploadMode());
+        Path assembledPath;
+        String assembledHash;
+        if (direct) {
+            verifyDirectChunks(chunks, document);
+            assembledPath = Paths.get(uploadDir, CHUNK_DIR, fileHash, DIRECT_PART_FILENAME);
+            assembledHash = FileUtil.calculateHash(fileAlgorithm, assembledPath, mmapThreshold);
+        } else {
+            assembledPath = mergedFilePath;
+            assembledHash = mergeChunkFiles(chunks, mergedFilePath, document.getFileSize(), fileAlgorithm);
+        }
+        if (!fileHash.equalsIgnoreCase(assembledHash)) {
+            if (!direct) {
+                Files.deleteIfExists(mergedFilePath);
             }
+            resetUploadProgress(document);
+            throw new IOException("文件合并后哈希验证失败，请重新上传");
         }
         
-        // 验证合并后的文件MD5
-        String mergedFileHash = FileUtil.calculateMD5(Files.newInputStream(mergedFilePath));
-        if (!fileHash.equals(mergedFileHash)) {
-            Files.deleteIfExists(mergedFilePath);
-            throw new IOException("文件合并后MD5验证失败");
+        // 内容寻址去重：相同内容已存储（如其他上传已先完成）时丢弃合并结果，复用已有文件
+        Optional<Blob> existingBlob = blobService.acquire(fileHash, fileAlgorithm);
+        Blob blob;
+        if (existingBlob.isPresent()) {
+            Files.deleteIfExists(assembledPath);
+            blob = existingBlob.get();
+        } else {
+            // 可压缩的内容转为分块压缩格式存储（在合并和校验之后进行，校验始终针对原始内容）
+            StorageCodec codec = StorageCodec.NONE;
+            Path compressedPath = Paths.get(fullPath, storedFilename + ".compressing");
+            if (storageCompressor.shouldCompress(contentType, filename)) {
+                codec = storageCompressor.compressFile(assembledPath, compressedPath);
+            }
+            String storedPath = datePath + File.separator + storedFilename;
+            Optional<Blob> registered = blobService.register(fileHash, fileAlgorithm, storedPath,
+                document.getFileSize(), codec);
+            if (!registered.isPresent()) {
+                // 直写文件保留在原处，普通模式的分片文件仍在，重试时可以重新合并
+                Files.deleteIfExists(compressedPath);
+                if (!direct) {
+                    Files.deleteIfExists(mergedFilePath);
+                }
+                throw new IOException("相同内容的文件正在删除，请稍后重试");
+            }
+            blob = registered.get();
+            if (!blob.getStoredPath().equals(storedPath)) {
+                // 相同内容已由并发上传登记：引用已有文件，丢弃合并结果
+                Files.deleteIfExists(compressedPath);
+                Files.deleteIfExists(assembledPath);
+            } else if (!codec.isIdentity()) {
+                // 登记成功后再将文件移动到最终位置
+                Files.move(compressedPath, mergedFilePath, StandardCopyOption.REPLACE_EXISTING);
+                if (direct) {
+                    Files.deleteIfExists(assembledPath);
+                }
+            } else if (direct) {
+                moveFile(assembledPath, mergedFilePath);
+            }
         }
         
         // 更新文档信息
-        document.setStoredFilename(datePath + File.separator + storedFilename);
+        Optional<Document> sameNameAndContent = documentRepository
+            .findFirstByFilenameAndFileHashAndUploadStatusOrderByVersionDesc(filename, fileHash, "completed");
+        document.setVersion(sameNameAndContent.map(doc -> doc.getVersion() + 1).orElse(1));
+        document.setBlobId(blob.getId());
+        document.setStoredFilename(blob.getStoredPath());
+        document.setStorageCodec(blob.getStorageCodec());
         document.setContentType(contentType);
         document.setUploadStatus("completed");
         document.setFilename(filename);
+        document.setTreeHash(computedTreeHash);
+        document.setUploadedChunks(chunks.size());
+        document.setChunkBitmap(null);
         document = documentRepository.save(document);
+        documentMetadataCache.invalidate(document.getId());
         
         // 删除分片文件和目录
         String chunkDir = uploadDir + File.separator + CHUNK_DIR + File.separator + fileHash;
@@ -366,82 +816,444 @@ public class DocumentServiceImpl implements DocumentService {
         return document;
     }
 
+    /**
+     * 按序号依次将分片文件追加到目标文件，同一次读取中计算整个文件的哈希值
+     * 每个字节只读取一次：文件哈希覆盖了所有分片的内容，不再单独重新计算分片哈希
+     */
+    private String mergeChunkFiles(List<DocumentChunk> chunks, Path mergedFilePath, Long fileSize,
+                                   HashAlgorithm algorithm) throws IOException {
+        long totalSize = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            DocumentChunk chunk = chunks.get(i);
+            if (chunk.getChunkIndex() != i) {
+                throw new IOException("缺少分片: " + i);
+            }
+            totalSize += chunk.getChunkSize();
+        }
+        if (fileSize != null && fileSize != totalSize) {
+            throw new IOException("分片总大小与文件大小不一致");
+        }
+
+        ContentHasher hasher = algorithm.newHasher();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MERGE_BUFFER_SIZE);
+        try (FileChannel outChannel = FileChannel.open(mergedFilePath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (DocumentChunk chunk : chunks) {
+                long written = 0;
+                try (FileChannel inChannel = FileChannel.open(Paths.get(chunk.getStoredPath()),
+                        StandardOpenOption.READ)) {
+                    while (inChannel.read(buffer) != -1) {
+                        buffer.flip();
+                        hasher.update(buffer.duplicate());
+                        while (buffer.hasRemaining()) {
+                            written += outChannel.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                }
+                if (written != chunk.getChunkSize()) {
+                    throw new IOException("分片" + chunk.getChunkIndex() + "大小不一致");
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(mergedFilePath);
+            throw e;
+        }
+        return hasher.digestHex();
+    }
+
+    /**
+     * 最多读取maxBytes字节的输入流，关闭时不关闭原始流（之后还要检查原始流是否还有多余的数据）
+     */
+    private static InputStream bounded(InputStream inputStream, long maxBytes) {
+        BoundedInputStream boundedStream = new BoundedInputStream(inputStream, maxBytes);
+        boundedStream.setPropagateClose(false);
+        return boundedStream;
+    }
+
+    /**
+     * 原子重命名文件，文件系统不支持时退化为普通移动
+     */
+    private static void moveFile(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 清空上传进度：删除分片记录并重置已接收分片，客户端续传时重新上传所有分片
+     */
+    private void resetUploadProgress(Document document) {
+        documentChunkRepository.deleteByDocumentId(document.getId());
+        document.setUploadedChunks(0);
+        document.setChunkBitmap(null);
+        documentRepository.save(document);
+    }
+
+    /**
+     * 校验直写模式的分片记录：序号连续且大小与预期偏移一致
+     */
+    private void verifyDirectChunks(List<DocumentChunk> chunks, Document document) throws IOException {
+        long totalSize = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            DocumentChunk chunk = chunks.get(i);
+            if (chunk.getChunkIndex() != i) {
+                throw new IOException("缺少分片: " + i);
+            }
+            totalSize += chunk.getChunkSize();
+        }
+        if (totalSize != document.getFileSize()) {
+            throw new IOException("分片总大小与文件大小不一致");
+        }
+    }
+
     @Override
     public Map<String, Object> checkUploadStatus(String fileHash) {
         Map<String, Object> result = new HashMap<>();
         
-        Optional<Document> docOpt = documentRepository.findByFileHashAndUploadStatus(fileHash, "uploading");
-        if (!docOpt.isPresent()) {
+        UploadSession session = chunkUploadTracker.getSession(fileHash);
+        if (session == null) {
             result.put("exists", false);
             return result;
         }
         
-        Document document = docOpt.get();
-        List<DocumentChunk> uploadedChunks = documentChunkRepository
-            .findByDocumentIdAndUploadStatusOrderByChunkIndex(document.getId(), "completed");
-        List<Integer> chunkIndices = uploadedChunks.stream()
-            .map(DocumentChunk::getChunkIndex)
-            .collect(Collectors.toList());
-        
         result.put("exists", true);
+        result.put("documentId", session.getDocumentId());
+        BitSet received = session.getReceived();
+        putUploadProgress(result, received);
+        result.put("totalChunks", session.getTotalChunks());
+        result.put("progress", session.getTotalChunks() > 0 ?
+            (received.cardinality() * 100.0 / session.getTotalChunks()) : 0);
+        
+        return result;
+    }
+
+    /**
+     * 输出已接收分片：数量、连续区间列表和Base64编码的位图，客户端据此跳过已上传的分片
+     */
+    private static void putUploadProgress(Map<String, Object> result, BitSet received) {
+        result.put("uploadedChunks", received.cardinality());
+        result.put("uploadedRanges", ChunkBitmap.toRanges(received));
+        result.put("uploadedBitmap", ChunkBitmap.toBase64(received));
+    }
+
+    /**
+     * 由文件哈希生成强实体标签
+     */
+    private static String buildETag(Document document) {
+        return "\"" + document.getFileHash() + "\"";
+    }
+
+    /**
+     * gzip编码表示的实体标签，与原始内容的实体标签区分
+     */
+    private static String buildGzipETag(Document document) {
+        return "\"" + document.getFileHash() + "-gzip\"";
+    }
+
+    /**
+     * 处理条件请求（If-None-Match、If-Modified-Since、If-Match、If-Unmodified-Since）
+     * 同时输出ETag、Last-Modified和Cache-Control响应头；返回true表示已返回304/412，无需再输出内容
+     */
+    private boolean checkNotModified(Document document, String eTag,
+                                     HttpServletRequest request, HttpServletResponse response) {
+        response.setHeader("Cache-Control", downloadCacheControl);
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        return webRequest.checkNotModified(eTag, document.getUploadTime().getTime());
+    }
+
+    /**
+     * 判断If-Range条件：没有If-Range头、实体标签强匹配或文档自指定时间后未修改时，Range请求才生效
+     */
+    private boolean isIfRangeSatisfied(HttpServletRequest request, Document document) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range只允许强比较，弱实体标签永远不匹配
+            return ifRange.trim().equals(buildETag(document));
+        }
+        try {
+            long ifRangeDate = request.getDateHeader("If-Range");
+            return ifRangeDate >= 0 && document.getUploadTime().getTime() / 1000 == ifRangeDate / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 将文件的指定范围作为整个响应体发送
+     * 异步模式下容器支持sendfile时仍优先使用sendfile（由连接器的轮询线程发送，不占用工作线程），
+     * 否则使用非阻塞的异步发送器；返回true表示已交给异步发送器
+     * 压缩存储的文件需边解压边发送，不能使用sendfile和异步文件通道，总是由当前线程写出
+     */
+    private boolean sendFile(HttpServletRequest request, HttpServletResponse response, Path filePath,
+                             StorageCodec codec, long start, long length, boolean async,
+                             TransferPermit permit) throws IOException {
+        if (!codec.isIdentity()) {
+            try (InputStream inputStream = codec.open(filePath, start, length);
+                 OutputStream outputStream = permit.wrap(response.getOutputStream())) {
+                fileTransferEngine.copy(inputStream, outputStream);
+            }
+            return false;
+        }
+        if (async && (permit.isLimited() || !fileTransferEngine.isSendfileAvailable(request, response, length))) {
+            asyncFileSender.send(request, response, filePath,
+                Collections.singletonList(new AsyncFileSender.Segment(null, start, length)), permit);
+            return true;
+        }
+        fileTransferEngine.transfer(request, response, filePath, start, length, permit);
+        return false;
+    }
+
+    /**
+     * 以gzip编码输出文档：已有压缩变体时直接发送变体文件（可使用sendfile），
+     * 否则边压缩边发送（长度未知，使用分块传输），同时在后台生成变体供后续请求使用
+     */
+    private boolean writeCompressed(Document document, HttpServletRequest request, HttpServletResponse response,
+                                    Path filePath, boolean async, TransferPermit permit) throws IOException {
+        String hashAlgorithm = HashAlgorithm.fromName(document.getHashAlgorithm()).name();
+        response.setHeader("Content-Encoding", "gzip");
+        Path variant = compressedVariantStore.getVariant(hashAlgorithm, document.getFileHash());
+        if (variant != null) {
+            long variantSize = Files.size(variant);
+            response.setContentLengthLong(variantSize);
+            return sendFile(request, response, variant, StorageCodec.NONE, 0, variantSize, async, permit);
+        }
+        StorageCodec codec = StorageCodec.fromName(document.getStorageCodec());
+        compressedVariantStore.createVariantAsync(
+            hashAlgorithm, document.getFileHash(), filePath, codec, document.getFileSize());
+        try (InputStream inputStream = codec.open(filePath, 0, document.getFileSize());
+             OutputStream outputStream = permit.wrap(response.getOutputStream())) {
+            compressedVariantStore.compress(inputStream, outputStream);
+        }
+        return false;
+    }
+
+    /**
+     * 输出单个字节范围：有内存缓存时直接输出缓存切片，否则通过传输引擎从文件读取
+     */
+    private void writeRange(Path filePath, StorageCodec codec, ByteBuffer cachedContent, ByteRange range,
+                            OutputStream outputStream) throws IOException {
+        if (cachedContent != null) {
+            ByteBuffer slice = cachedContent.duplicate();
+            slice.position((int) range.getStart());
+            slice.limit((int) range.getEnd() + 1);
+            fileTransferEngine.write(slice, outputStream);
+            return;
+        }
+        if (!codec.isIdentity()) {
+            try (InputStream inputStream = codec.open(filePath, range.getStart(), range.getLength())) {
+                fileTransferEngine.copy(inputStream, outputStream);
+            }
+            return;
+        }
+        fileTransferEngine.copy(filePath, range.getStart(), range.getLength(), outputStream);
+    }
+
+    @Override
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("metadata", documentMetadataCache.getStats());
+        result.put("content", contentCache.getStats());
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> verifyDocument(Long id) throws IOException {
+        Document document = getDocumentById(id);
+        if (document == null) {
+            return null;
+        }
+        
+        Map<String, Object> result = new HashMap<>();
+        HashAlgorithm algorithm = HashAlgorithm.fromName(document.getHashAlgorithm());
         result.put("documentId", document.getId());
-        result.put("uploadedChunks", chunkIndices);
-        result.put("totalChunks", document.getTotalChunks());
-        result.put("progress", document.getTotalChunks() > 0 ? 
-            (document.getUploadedChunks() * 100.0 / document.getTotalChunks()) : 0);
+        result.put("algorithm", algorithm.name());
+        result.put("expectedHash", document.getFileHash());
         
+        Path filePath = Paths.get(uploadDir, document.getStoredFilename());
+        if (!Files.exists(filePath)) {
+            result.put("valid", false);
+            result.put("message", "存储文件不存在");
+            return result;
+        }
+        
+        long startTime = System.currentTimeMillis();
+        StorageCodec codec = StorageCodec.fromName(document.getStorageCodec());
+        String actualHash;
+        if (codec.isIdentity()) {
+            actualHash = FileUtil.calculateHash(algorithm, filePath, mmapThreshold);
+        } else {
+            // 压缩存储：对解压后的原始内容计算哈希
+            try (InputStream inputStream = codec.open(filePath, 0, document.getFileSize())) {
+                actualHash = FileUtil.calculateHash(algorithm, inputStream);
+            }
+        }
+        result.put("actualHash", actualHash);
+        result.put("valid", document.getFileHash().equalsIgnoreCase(actualHash));
+        result.put("fileSize", document.getFileSize());
+        result.put("storedSize", Files.size(filePath));
+        result.put("storageCodec", codec.name());
+        result.put("elapsedMillis", System.currentTimeMillis() - startTime);
         return result;
     }
 
     @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void downloadDocumentStream(Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serveDocument(id, request, response, true, false);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void downloadDocumentAsync(Long id, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serveDocument(id, request, response, true, true);
+    }
+
+    /**
+     * 下载文档的公共流程：条件请求、Range解析、内存缓存和文件传输
+     * async为true时使用非阻塞I/O发送，请求线程在开始发送后即返回
+     */
+    private void serveDocument(Long id, HttpServletRequest request, HttpServletResponse response,
+                               boolean allowRanges, boolean async) throws IOException {
         Document document = getDocumentById(id);
         if (document == null) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
-        // 增加下载次数
-        document.setDownloadCount(document.getDownloadCount() + 1);
-        documentRepository.save(document);
+        // 内容协商：可压缩的文档在客户端接受gzip时压缩传输；Range请求始终针对原始内容
+        boolean compressible = compressedVariantStore.isCompressible(document);
+        boolean gzip = compressible && !(allowRanges && request.getHeader("Range") != null)
+            && CompressedVariantStore.acceptsGzip(request);
+        if (compressible) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        // 条件请求：内容未变化时直接返回304，不读取文件
+        if (checkNotModified(document, gzip ? buildGzipETag(document) : buildETag(document), request, response)) {
+            return;
+        }
+
+        // 申请传输许可：客户端并发下载数已达上限时返回429
+        TransferPermit permit = transferLimiter.open(request, TransferLimiter.Endpoint.DOWNLOAD);
+        if (permit == null) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+            return;
+        }
+        boolean handedOff = false;
+        try {
+            handedOff = writeDocument(document, request, response, allowRanges, async, gzip, permit);
+        } finally {
+            if (!handedOff) {
+                permit.close();
+            }
+        }
+    }
+
+    /**
+     * 输出文档内容，返回true表示传输已交给异步发送器，许可由发送器在传输结束时归还
+     */
+    private boolean writeDocument(Document document, HttpServletRequest request, HttpServletResponse response,
+                                  boolean allowRanges, boolean async, boolean gzip,
+                                  TransferPermit permit) throws IOException {
+        // 增加下载次数（内存累加，异步批量写回）
+        downloadCounter.increment(document.getId());
 
         Path filePath = Paths.get(uploadDir, document.getStoredFilename());
         if (!Files.exists(filePath)) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
+            return false;
         }
+        StorageCodec codec = StorageCodec.fromName(document.getStorageCodec());
 
         // 设置响应头
+        long fileSize = document.getFileSize();
         response.setContentType(document.getContentType());
         response.setHeader("Content-Disposition", "attachment; filename=\"" + document.getFilename() + "\"");
-        response.setContentLengthLong(document.getFileSize());
-        
-        // 支持Range请求（断点续传下载）
-        String rangeHeader = request.getHeader("Range");
-        if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-            // 解析Range请求
-            String[] ranges = rangeHeader.substring(6).split("-");
-            long start = Long.parseLong(ranges[0]);
-            long end = ranges.length > 1 && !ranges[1].isEmpty() ? 
-                Long.parseLong(ranges[1]) : document.getFileSize() - 1;
-            
-            long contentLength = end - start + 1;
-            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-            response.setHeader("Content-Range", 
-                String.format("bytes %d-%d/%d", start, end, document.getFileSize()));
-            response.setContentLengthLong(contentLength);
-            
-            // 使用NIO零拷贝技术进行流式传输
-            try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
-                 WritableByteChannel outChannel = Channels.newChannel(response.getOutputStream())) {
-                fileChannel.transferTo(start, contentLength, outChannel);
+        if (allowRanges) {
+            response.setHeader("Accept-Ranges", "bytes");
+        }
+        if (gzip) {
+            return writeCompressed(document, request, response, filePath, async, permit);
+        }
+        
+        // 支持Range请求（断点续传、多段并行下载）；If-Range不匹配时返回完整内容
+        List<ByteRange> ranges = allowRanges && isIfRangeSatisfied(request, document)
+            ? ByteRange.parse(request.getHeader("Range"), fileSize) : null;
+        if (ranges != null && ranges.isEmpty()) {
+            response.setHeader("Content-Range", "bytes */" + fileSize);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return false;
+        }
+        
+        ByteBuffer cachedContent = contentCache.isCacheable(document) ? contentCache.get(document, filePath) : null;
+        if (ranges == null) {
+            response.setContentLengthLong(fileSize);
+            if (cachedContent != null) {
+                // 热点小文件直接从内存缓存输出
+                try (OutputStream outputStream = permit.wrap(response.getOutputStream())) {
+                    fileTransferEngine.write(cachedContent, outputStream);
+                }
+                return false;
             }
-        } else {
-            // 普通下载，使用流式传输
-            try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
-                 WritableByteChannel outChannel = Channels.newChannel(response.getOutputStream())) {
-                fileChannel.transferTo(0, document.getFileSize(), outChannel);
+            return sendFile(request, response, filePath, codec, 0, fileSize, async, permit);
+        }
+        
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setHeader("Content-Range", range.toContentRange(fileSize));
+            response.setContentLengthLong(range.getLength());
+            if (cachedContent != null) {
+                try (OutputStream outputStream = permit.wrap(response.getOutputStream())) {
+                    writeRange(filePath, codec, cachedContent, range, outputStream);
+                }
+                return false;
+            }
+            return sendFile(request, response, filePath, codec,
+                range.getStart(), range.getLength(), async, permit);
+        }
+        
+        // 多个范围：multipart/byteranges
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + document.getContentType() + "\r\n"
+                + "Content-Range: " + range.toContentRange(fileSize) + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range.getLength();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        contentLength += closing.length;
+        
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (async && cachedContent == null && codec.isIdentity()) {
+            List<AsyncFileSender.Segment> segments = new ArrayList<>(ranges.size() + 1);
+            for (int i = 0; i < ranges.size(); i++) {
+                segments.add(new AsyncFileSender.Segment(
+                    partHeaders.get(i), ranges.get(i).getStart(), ranges.get(i).getLength()));
+            }
+            segments.add(new AsyncFileSender.Segment(closing, 0, 0));
+            asyncFileSender.send(request, response, filePath, segments, permit);
+            return true;
+        }
+        try (OutputStream outputStream = permit.wrap(response.getOutputStream())) {
+            for (int i = 0; i < ranges.size(); i++) {
+                outputStream.write(partHeaders.get(i));
+                writeRange(filePath, codec, cachedContent, ranges.get(i), outputStream);
             }
+            outputStream.write(closing);
         }
+        return false;
     }
 }
\ No newline at end of file
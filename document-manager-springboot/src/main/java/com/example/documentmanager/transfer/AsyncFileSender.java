@@ -0,0 +1,233 @@
+package com.example.documentmanager.transfer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于Servlet 3.1非阻塞I/O（AsyncContext + WriteListener）的文件发送器
+ * 请求线程在启动异步发送后立即归还容器；只有在连接可写时才由容器线程回调写入下一块数据，
+ * 因此占用的线程数与正在写入的连接数相关，而与已连接的慢速客户端数量无关。
+ * 需要限速时不阻塞线程等待令牌，而是由调度线程在令牌足够后继续写入。
+ * 每个传输从 {@link FileTransferEngine} 的缓冲池借用缓冲区，结束（完成、出错或超时）时归还。
+ */
+@Component
+public class AsyncFileSender {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncFileSender.class);
+
+    @Autowired
+    private FileTransferEngine fileTransferEngine;
+
+    @Value("${file.transfer.async-timeout:3600000}")
+    private long asyncTimeout;
+
+    private final AtomicInteger activeTransfers = new AtomicInteger();
+
+    private final ScheduledExecutorService throttleScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "async-transfer-throttle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 待发送的一段内容：先发送前缀字节（如multipart分段头），再发送文件的指定范围
+     */
+    public static class Segment {
+        private final byte[] prefix;
+        private final long start;
+        private final long length;
+
+        public Segment(byte[] prefix, long start, long length) {
+            this.prefix = prefix;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 启动异步发送，调用方需已设置状态码和响应头
+     * 许可的所有权转移给发送器，传输结束（完成、出错或超时）时归还
+     */
+    public void send(HttpServletRequest request, HttpServletResponse response, Path filePath,
+                     List<Segment> segments, TransferPermit permit) throws IOException {
+        FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(asyncTimeout);
+        ServletOutputStream outputStream = response.getOutputStream();
+        Transfer transfer = new Transfer(asyncContext, outputStream, fileChannel, segments, filePath, permit);
+        asyncContext.addListener(transfer);
+        activeTransfers.incrementAndGet();
+        outputStream.setWriteListener(transfer);
+    }
+
+    public int getActiveTransfers() {
+        return activeTransfers.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        throttleScheduler.shutdownNow();
+    }
+
+    private class Transfer implements WriteListener, AsyncListener {
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream outputStream;
+        private final FileChannel fileChannel;
+        private final Deque<Segment> segments;
+        private final Path filePath;
+        private final TransferPermit permit;
+        private byte[] buffer = fileTransferEngine.acquireBuffer();
+        private final long startTime = System.nanoTime();
+        private Segment current;
+        private long position;
+        private long remaining;
+        private int pendingLength; // 已读入缓冲区、等待令牌后再写出的字节数
+        private boolean waitingForTokens;
+        private long bytesSent;
+        private boolean finished;
+
+        Transfer(AsyncContext asyncContext, ServletOutputStream outputStream, FileChannel fileChannel,
+                 List<Segment> segments, Path filePath, TransferPermit permit) {
+            this.asyncContext = asyncContext;
+            this.outputStream = outputStream;
+            this.fileChannel = fileChannel;
+            this.segments = new ArrayDeque<>(segments);
+            this.filePath = filePath;
+            this.permit = permit;
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            if (finished || waitingForTokens) {
+                return;
+            }
+            while (outputStream.isReady()) {
+                if (pendingLength > 0) {
+                    outputStream.write(buffer, 0, pendingLength);
+                    bytesSent += pendingLength;
+                    pendingLength = 0;
+                    continue;
+                }
+                if (current == null || remaining == 0) {
+                    current = segments.poll();
+                    if (current == null) {
+                        finish();
+                        return;
+                    }
+                    position = current.start;
+                    remaining = current.length;
+                    if (current.prefix != null) {
+                        outputStream.write(current.prefix);
+                        continue;
+                    }
+                }
+                int bytesRead = fileChannel.read(
+                    ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, remaining)), position);
+                if (bytesRead < 0) {
+                    throw new EOFException("文件内容短于记录的大小");
+                }
+                position += bytesRead;
+                remaining -= bytesRead;
+                pendingLength = bytesRead;
+                long waitNanos = permit.reserve(bytesRead);
+                if (waitNanos > 0) {
+                    // 令牌不足：连接仍可写，容器不会再回调，由调度线程在等待结束后继续
+                    waitingForTokens = true;
+                    throttleScheduler.schedule(this::resume, waitNanos, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+        }
+
+        private synchronized void resume() {
+            waitingForTokens = false;
+            try {
+                onWritePossible();
+            } catch (IOException | RuntimeException e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // 客户端断开等写入错误
+            finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            release();
+            asyncContext.complete();
+            if (log.isDebugEnabled()) {
+                double seconds = Math.max(System.nanoTime() - startTime, 1) / 1_000_000_000.0;
+                log.debug("异步传输 {} 字节，吞吐量 {} MB/s：{}", bytesSent,
+                    String.format("%.2f", bytesSent / seconds / (1024 * 1024)), filePath);
+            }
+        }
+
+        private synchronized void release() {
+            // 之后不再写出（包括等待令牌的调度任务），缓冲区可以归还给其他传输
+            finished = true;
+            if (buffer != null) {
+                fileTransferEngine.releaseBuffer(buffer);
+                buffer = null;
+            }
+            permit.close();
+            if (fileChannel.isOpen()) {
+                activeTransfers.decrementAndGet();
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    // 忽略关闭异常
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.documentmanager.transfer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 下载文件传输引擎
+ * 容器支持时使用Tomcat的sendfile（由内核直接从页缓存发送，不经过JVM），
+ * 否则使用池化的大缓冲区循环读写，并统计传输量和吞吐量（通过 /transfer/stats 查看）。
+ * 缓冲区使用堆内数组而不是直接缓冲区：Servlet输出流只接受byte[]，直接缓冲区的内容写出前还要再复制到堆内，
+ * 而FileChannel读入堆内缓冲区时JDK本身会经由线程缓存的直接缓冲区，两种方式的复制次数相同。
+ */
+@Component
+public class FileTransferEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(FileTransferEngine.class);
+
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    @Value("${file.transfer.buffer-size:262144}")
+    private int bufferSize;
+
+    @Value("${file.transfer.buffer-pool-size:64}")
+    private int bufferPoolSize;
+
+    @Value("${file.transfer.sendfile-enabled:true}")
+    private boolean sendfileEnabled;
+
+    @Value("${file.transfer.sendfile-min-size:49152}")
+    private long sendfileMinSize;
+
+    private BlockingQueue<byte[]> bufferPool;
+
+    // sendfile在servlet返回后由容器发送，只能统计次数和字节数
+    private final LongAdder sendfileTransfers = new LongAdder();
+
+    private final LongAdder sendfileBytes = new LongAdder();
+
+    private final LongAdder bufferedTransfers = new LongAdder();
+
+    private final LongAdder bufferedBytes = new LongAdder();
+
+    private final LongAdder bufferedNanos = new LongAdder();
+
+    private volatile double lastBufferedBytesPerSecond;
+
+    @PostConstruct
+    public void init() {
+        bufferPool = new ArrayBlockingQueue<>(bufferPoolSize);
+    }
+
+    /**
+     * 将文件的指定范围作为整个响应体发送，调用方需已设置状态码和Content-Length
+     * 受限速或并发约束的传输不使用sendfile，由工作线程按许可限速写出
+     */
+    public void transfer(HttpServletRequest request, HttpServletResponse response,
+                         Path filePath, long start, long length, TransferPermit permit) throws IOException {
+        if (!permit.isLimited() && isSendfileAvailable(request, response, length)) {
+            // 由容器在servlet返回后通过sendfile发送，此处只登记文件和范围
+            request.setAttribute(SENDFILE_FILENAME_ATTR, filePath.toFile().getCanonicalPath());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + length);
+            sendfileTransfers.increment();
+            sendfileBytes.add(length);
+            if (log.isDebugEnabled()) {
+                log.debug("传输 {} 字节：交由容器sendfile发送 {}", length, filePath);
+            }
+            return;
+        }
+        try (OutputStream outputStream = permit.wrap(response.getOutputStream())) {
+            copy(filePath, start, length, outputStream);
+        }
+    }
+
+    /**
+     * 将文件的指定范围写入输出流（用于multipart/byteranges等无法使用sendfile的场景）
+     */
+    public void copy(Path filePath, long start, long length, OutputStream outputStream) throws IOException {
+        long startTime = System.nanoTime();
+        byte[] buffer = acquireBuffer();
+        try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(buffer.length, remaining));
+                int bytesRead = fileChannel.read(byteBuffer, position);
+                if (bytesRead < 0) {
+                    throw new EOFException("文件内容短于记录的大小");
+                }
+                outputStream.write(buffer, 0, bytesRead);
+                position += bytesRead;
+                remaining -= bytesRead;
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        recordBuffered(filePath, length, System.nanoTime() - startTime);
+    }
+
+    /**
+     * 将输入流的全部内容写入输出流（用于需要解码的存储文件），返回写入的字节数
+     */
+    public long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        long startTime = System.nanoTime();
+        byte[] buffer = acquireBuffer();
+        long total = 0;
+        try {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+                total += bytesRead;
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        recordBuffered(null, total, System.nanoTime() - startTime);
+        return total;
+    }
+
+    /**
+     * 将缓冲区中 position 到 limit 之间的内容写入输出流（用于内容缓存命中），经由池化缓冲区复制；
+     * 内存到内存的复制不计入传输吞吐量统计
+     */
+    public void write(ByteBuffer content, OutputStream outputStream) throws IOException {
+        byte[] buffer = acquireBuffer();
+        try {
+            while (content.hasRemaining()) {
+                int length = Math.min(buffer.length, content.remaining());
+                content.get(buffer, 0, length);
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * 当前请求能否由容器通过sendfile发送指定长度的响应体
+     */
+    public boolean isSendfileAvailable(HttpServletRequest request, HttpServletResponse response, long length) {
+        return sendfileEnabled
+            && length >= sendfileMinSize
+            && !response.isCommitted()
+            && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR));
+    }
+
+    /**
+     * 从池中借用一个传输缓冲区（大小为file.transfer.buffer-size），池为空时新建；用完后必须调用 {@link #releaseBuffer}
+     */
+    public byte[] acquireBuffer() {
+        byte[] buffer = bufferPool.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * 归还借用的缓冲区，归还后调用方不能再使用；池已满时丢弃
+     */
+    public void releaseBuffer(byte[] buffer) {
+        bufferPool.offer(buffer);
+    }
+
+    /**
+     * 传输次数、字节数和缓冲区传输的吞吐量（平均值和最近一次）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long bytes = bufferedBytes.sum();
+        long nanos = bufferedNanos.sum();
+        stats.put("sendfileTransfers", sendfileTransfers.sum());
+        stats.put("sendfileBytes", sendfileBytes.sum());
+        stats.put("bufferedTransfers", bufferedTransfers.sum());
+        stats.put("bufferedBytes", bytes);
+        stats.put("bufferedBytesPerSecond", nanos > 0 ? (long) (bytes * 1e9 / nanos) : 0L);
+        stats.put("lastBufferedBytesPerSecond", (long) lastBufferedBytesPerSecond);
+        stats.put("bufferSize", bufferSize);
+        stats.put("pooledBuffers", bufferPool.size());
+        return stats;
+    }
+
+    private void recordBuffered(Path filePath, long bytes, long elapsedNanos) {
+        elapsedNanos = Math.max(elapsedNanos, 1);
+        double bytesPerSecond = bytes * 1e9 / elapsedNanos;
+        bufferedTransfers.increment();
+        bufferedBytes.add(bytes);
+        bufferedNanos.add(elapsedNanos);
+        lastBufferedBytesPerSecond = bytesPerSecond;
+        if (log.isDebugEnabled()) {
+            log.debug("传输 {} 字节，耗时 {} ms，吞吐量 {} MB/s：{}", bytes, elapsedNanos / 1_000_000,
+                String.format("%.2f", bytesPerSecond / (1024 * 1024)), filePath == null ? "解码流" : filePath);
+        }
+    }
+}
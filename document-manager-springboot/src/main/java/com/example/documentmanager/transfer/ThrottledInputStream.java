@@ -0,0 +1,36 @@
+package com.example.documentmanager.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按传输许可限速的输入流，用于限制上传时从客户端读取请求体的速率
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+    private final TransferPermit permit;
+
+    ThrottledInputStream(InputStream in, TransferPermit permit) {
+        super(in);
+        this.permit = permit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            permit.throttle(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int bytesRead = in.read(b, off, len);
+        if (bytesRead > 0) {
+            permit.throttle(bytesRead);
+        }
+        return bytesRead;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.documentmanager.transfer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 按传输许可限速的输出流
+ */
+class ThrottledOutputStream extends FilterOutputStream {
+
+    // 大块写入拆分为小片分别限速，使输出更平滑
+    private static final int SLICE_SIZE = 64 * 1024;
+
+    private final TransferPermit permit;
+
+    ThrottledOutputStream(OutputStream out, TransferPermit permit) {
+        super(out);
+        this.permit = permit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        permit.throttle(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int slice = Math.min(len, SLICE_SIZE);
+            permit.throttle(slice);
+            out.write(b, off, slice);
+            off += slice;
+            len -= slice;
+        }
+    }
+}
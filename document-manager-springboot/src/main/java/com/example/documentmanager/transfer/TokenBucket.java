@@ -0,0 +1,49 @@
+package com.example.documentmanager.transfer;
+
+/**
+ * 令牌桶限速器，令牌单位为字节
+ * 允许桶内令牌被透支：reserve先扣除令牌，再返回调用方在发送前需要等待的时间，
+ * 这样一次读取的整块数据可以立即扣费，且多个并发传输共享同一桶时仍能保持总速率。
+ */
+public class TokenBucket {
+
+    private final long bytesPerSecond;
+
+    private final long capacity;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    /**
+     * @param bytesPerSecond 持续速率
+     * @param capacity       桶容量，即允许的突发字节数
+     */
+    public TokenBucket(long bytesPerSecond, long capacity) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("速率必须大于0");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = Math.max(capacity, 1);
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 扣除指定字节数的令牌，返回需要等待的纳秒数（0表示可立即发送）
+     */
+    public synchronized long reserve(long bytes) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * bytesPerSecond / 1_000_000_000.0);
+        lastRefillNanos = now;
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * 1_000_000_000.0 / bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
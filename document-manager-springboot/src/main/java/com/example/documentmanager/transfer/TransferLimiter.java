@@ -0,0 +1,132 @@
+package com.example.documentmanager.transfer;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 传输带宽整形和并发控制
+ * 令牌桶分为三级：全局（所有上传下载共享）、接口（下载/上传各自的总速率）、客户端（按IP和接口区分）；
+ * 一次传输需同时满足所有适用的令牌桶。另外限制每个客户端同时进行的传输数量。
+ * 所有限制配置为0时表示不限制。
+ */
+@Component
+public class TransferLimiter {
+
+    public enum Endpoint {
+        DOWNLOAD, UPLOAD
+    }
+
+    @Value("${file.transfer.limit.global-bytes-per-second:0}")
+    private long globalBytesPerSecond;
+
+    @Value("${file.transfer.limit.download.bytes-per-second:0}")
+    private long downloadBytesPerSecond;
+
+    @Value("${file.transfer.limit.download.client-bytes-per-second:0}")
+    private long downloadClientBytesPerSecond;
+
+    @Value("${file.transfer.limit.upload.bytes-per-second:0}")
+    private long uploadBytesPerSecond;
+
+    @Value("${file.transfer.limit.upload.client-bytes-per-second:0}")
+    private long uploadClientBytesPerSecond;
+
+    @Value("${file.transfer.limit.max-concurrent-per-client:0}")
+    private int maxConcurrentPerClient;
+
+    @Value("${file.transfer.buffer-size:262144}")
+    private int bufferSize;
+
+    private TokenBucket globalBucket;
+
+    private final Map<Endpoint, TokenBucket> endpointBuckets = new HashMap<>();
+
+    // 客户端令牌桶，长时间无传输的客户端自动淘汰
+    private final Cache<String, TokenBucket> clientBuckets = Caffeine.newBuilder()
+        .expireAfterAccess(10, TimeUnit.MINUTES)
+        .maximumSize(100_000)
+        .build();
+
+    private final ConcurrentHashMap<String, Integer> activeTransfers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        globalBucket = newBucket(globalBytesPerSecond);
+        putIfLimited(Endpoint.DOWNLOAD, newBucket(downloadBytesPerSecond));
+        putIfLimited(Endpoint.UPLOAD, newBucket(uploadBytesPerSecond));
+    }
+
+    /**
+     * 为请求申请一次传输许可；客户端并发传输数已达上限时返回null
+     */
+    public TransferPermit open(HttpServletRequest request, Endpoint endpoint) {
+        String client = request.getRemoteAddr();
+        Runnable releaseAction = null;
+        if (maxConcurrentPerClient > 0) {
+            Integer active = activeTransfers.merge(client, 1, Integer::sum);
+            if (active > maxConcurrentPerClient) {
+                releaseSlot(client);
+                return null;
+            }
+            releaseAction = () -> releaseSlot(client);
+        }
+
+        List<TokenBucket> buckets = new ArrayList<>(3);
+        if (globalBucket != null) {
+            buckets.add(globalBucket);
+        }
+        TokenBucket endpointBucket = endpointBuckets.get(endpoint);
+        if (endpointBucket != null) {
+            buckets.add(endpointBucket);
+        }
+        long clientBytesPerSecond = endpoint == Endpoint.DOWNLOAD
+            ? downloadClientBytesPerSecond : uploadClientBytesPerSecond;
+        if (clientBytesPerSecond > 0) {
+            buckets.add(clientBuckets.get(endpoint + "|" + client, key -> newBucket(clientBytesPerSecond)));
+        }
+        return new TransferPermit(buckets, releaseAction);
+    }
+
+    /**
+     * 获取限速配置和当前各客户端的并发传输数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("globalBytesPerSecond", globalBytesPerSecond);
+        stats.put("downloadBytesPerSecond", downloadBytesPerSecond);
+        stats.put("downloadClientBytesPerSecond", downloadClientBytesPerSecond);
+        stats.put("uploadBytesPerSecond", uploadBytesPerSecond);
+        stats.put("uploadClientBytesPerSecond", uploadClientBytesPerSecond);
+        stats.put("maxConcurrentPerClient", maxConcurrentPerClient);
+        stats.put("activeClients", activeTransfers.size());
+        return stats;
+    }
+
+    private void releaseSlot(String client) {
+        activeTransfers.computeIfPresent(client, (key, active) -> active > 1 ? active - 1 : null);
+    }
+
+    private void putIfLimited(Endpoint endpoint, TokenBucket bucket) {
+        if (bucket != null) {
+            endpointBuckets.put(endpoint, bucket);
+        }
+    }
+
+    /**
+     * 桶容量取一秒的流量，且不小于一个传输缓冲区，避免单次读写永远需要透支
+     */
+    private TokenBucket newBucket(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, Math.max(bytesPerSecond, bufferSize)) : null;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.documentmanager.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次传输的许可：持有客户端的并发名额，并按适用的令牌桶（全局、接口、客户端）限速
+ * 传输结束后必须调用close归还名额，重复调用是安全的。
+ */
+public class TransferPermit implements AutoCloseable {
+
+    private final List<TokenBucket> buckets;
+
+    private final Runnable releaseAction;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    TransferPermit(List<TokenBucket> buckets, Runnable releaseAction) {
+        this.buckets = buckets;
+        this.releaseAction = releaseAction;
+    }
+
+    /**
+     * 是否需要限速
+     */
+    public boolean isThrottled() {
+        return !buckets.isEmpty();
+    }
+
+    /**
+     * 是否受到限速或并发名额约束；受约束的传输不能交给sendfile，
+     * 否则传输会在servlet返回后脱离限速和并发计数继续进行
+     */
+    public boolean isLimited() {
+        return isThrottled() || releaseAction != null;
+    }
+
+    /**
+     * 为即将传输的字节扣除令牌，返回需要等待的纳秒数（取各令牌桶中最长的等待）
+     */
+    public long reserve(long bytes) {
+        long waitNanos = 0;
+        for (TokenBucket bucket : buckets) {
+            waitNanos = Math.max(waitNanos, bucket.reserve(bytes));
+        }
+        return waitNanos;
+    }
+
+    /**
+     * 阻塞直到允许传输指定字节数
+     */
+    public void throttle(long bytes) throws IOException {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("限速等待被中断");
+            }
+        }
+    }
+
+    /**
+     * 包装输出流，写入时按许可限速；无需限速时原样返回
+     */
+    public OutputStream wrap(OutputStream outputStream) {
+        return isThrottled() ? new ThrottledOutputStream(outputStream, this) : outputStream;
+    }
+
+    /**
+     * 包装输入流，读取时按许可限速；无需限速时原样返回
+     */
+    public InputStream wrap(InputStream inputStream) {
+        return isThrottled() ? new ThrottledInputStream(inputStream, this) : inputStream;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true) && releaseAction != null) {
+            releaseAction.run();
+        }
+    }
+}
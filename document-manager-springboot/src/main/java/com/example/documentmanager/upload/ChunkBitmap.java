@@ -0,0 +1,43 @@
+package com.example.documentmanager.upload;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 分片位图的序列化
+ * 存储使用 BitSet.toByteArray 的小端字节序（第i个分片对应第 i/8 个字节的第 i%8 位），
+ * 返回给客户端时使用Base64编码或连续区间列表。
+ */
+public final class ChunkBitmap {
+
+    private ChunkBitmap() {
+    }
+
+    public static byte[] toBytes(BitSet bits) {
+        return bits.toByteArray();
+    }
+
+    public static BitSet fromBytes(byte[] bytes) {
+        return bytes == null ? new BitSet() : BitSet.valueOf(bytes);
+    }
+
+    public static String toBase64(BitSet bits) {
+        return Base64.getEncoder().encodeToString(bits.toByteArray());
+    }
+
+    /**
+     * 转换为连续区间列表，每个区间为 [起始序号, 结束序号]（闭区间）
+     */
+    public static List<int[]> toRanges(BitSet bits) {
+        List<int[]> ranges = new ArrayList<>();
+        int start = bits.nextSetBit(0);
+        while (start >= 0) {
+            int end = bits.nextClearBit(start);
+            ranges.add(new int[] {start, end - 1});
+            start = bits.nextSetBit(end);
+        }
+        return ranges;
+    }
+}
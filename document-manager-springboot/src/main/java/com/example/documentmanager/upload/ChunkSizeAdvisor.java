@@ -0,0 +1,118 @@
+package com.example.documentmanager.upload;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片上传方案建议
+ * 按客户端记录最近分片的单流吞吐量（指数加权移动平均），选择分片大小使每个分片大约传输target-chunk-seconds秒：
+ * 链路快时分片更大、请求和分片记录更少，拥塞时分片变小、失败重传的代价更低。
+ * 吞吐量只从流式上传接口采样（请求体边读取边写入，耗时包含客户端的传输时间）；
+ * multipart接口的请求体在进入控制器前已完整接收，其耗时只反映本地磁盘复制速度。
+ * 分片数量不超过max-chunks（超大文件按此放大分片），建议并发数随服务端正在接收的分片数增加而降低。
+ */
+@Component
+public class ChunkSizeAdvisor {
+
+    private static final long SIZE_ALIGNMENT = 1024 * 1024;
+
+    private static final double EWMA_WEIGHT = 0.2;
+
+    // 超过该时间没有新样本时客户端的吞吐量估计作废，回到默认分片大小
+    private static final long SAMPLE_TTL_MINUTES = 10;
+
+    @Value("${file.chunk-size:5242880}")
+    private long defaultChunkSize;
+
+    @Value("${file.chunk-upload.min-chunk-size:1048576}")
+    private long minChunkSize;
+
+    @Value("${file.chunk-upload.max-chunk-size:134217728}")
+    private long maxChunkSize;
+
+    @Value("${file.chunk-upload.target-chunk-seconds:5}")
+    private double targetSeconds;
+
+    @Value("${file.chunk-upload.max-chunks:10000}")
+    private long maxChunks;
+
+    @Value("${file.chunk-upload.max-parallel:4}")
+    private int maxParallel;
+
+    @Value("${file.chunk-upload.max-active:64}")
+    private int maxActive;
+
+    private final AtomicInteger activeChunks = new AtomicInteger();
+
+    // 各客户端单个分片请求的平均吞吐量（字节/秒），长时间没有新样本的客户端自动淘汰
+    private final Cache<String, Double> clientThroughput = Caffeine.newBuilder()
+        .expireAfterWrite(SAMPLE_TTL_MINUTES, TimeUnit.MINUTES)
+        .maximumSize(100_000)
+        .build();
+
+    /**
+     * 开始接收一个分片（用于统计服务端负载），结束时调用 {@link #chunkFinished()}
+     */
+    public void chunkStarted() {
+        activeChunks.incrementAndGet();
+    }
+
+    public void chunkFinished() {
+        activeChunks.decrementAndGet();
+    }
+
+    /**
+     * 记录客户端一个分片的传输耗时（从请求开始到请求体读取并写入完成）
+     * 小于最小分片大小的分片（如文件末尾的分片）耗时主要是请求开销，不计入
+     */
+    public void recordThroughput(String client, long bytes, long elapsedNanos) {
+        if (bytes < minChunkSize || elapsedNanos <= 0) {
+            return;
+        }
+        double sample = bytes * 1e9 / elapsedNanos;
+        clientThroughput.asMap().merge(client, sample,
+            (average, latest) -> average + EWMA_WEIGHT * (latest - average));
+    }
+
+    /**
+     * 为客户端建议的分片大小：按该客户端的吞吐量估计每个分片传输约target-chunk-seconds秒，
+     * 限制在[min, max]内并按1MB对齐；分片数会超过max-chunks时按文件大小放大分片（此时可以超过max）
+     */
+    public long recommendChunkSize(String client, long fileSize) {
+        Double throughput = clientThroughput.getIfPresent(client);
+        long size = throughput != null ? (long) (throughput * targetSeconds) : defaultChunkSize;
+        size = Math.max(minChunkSize, Math.min(maxChunkSize, size));
+        if (maxChunks > 0) {
+            size = Math.max(size, (fileSize + maxChunks - 1) / maxChunks);
+        }
+        size = (size + SIZE_ALIGNMENT - 1) / SIZE_ALIGNMENT * SIZE_ALIGNMENT;
+        return size;
+    }
+
+    /**
+     * 建议的并发分片数：服务端正在接收的分片数达到max-active时降为1
+     */
+    public int recommendParallelism() {
+        double load = maxActive > 0 ? Math.min(1.0, (double) activeChunks.get() / maxActive) : 0;
+        return Math.max(1, (int) Math.round(maxParallel * (1 - load)));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeChunks", activeChunks.get());
+        stats.put("trackedClients", clientThroughput.estimatedSize());
+        stats.put("defaultChunkSize", defaultChunkSize);
+        stats.put("minChunkSize", minChunkSize);
+        stats.put("maxChunkSize", maxChunkSize);
+        stats.put("maxChunks", maxChunks);
+        stats.put("recommendedParallelism", recommendParallelism());
+        return stats;
+    }
+}
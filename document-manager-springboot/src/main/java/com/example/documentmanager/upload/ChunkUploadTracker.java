@@ -0,0 +1,189 @@
+package com.example.documentmanager.upload;
+
+import com.example.documentmanager.entity.Document;
+import com.example.documentmanager.entity.DocumentChunk;
+import com.example.documentmanager.repository.DocumentChunkRepository;
+import com.example.documentmanager.repository.DocumentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分片上传的内存记账
+ * 每个上传中的文件对应一个会话，分片到达时只在内存位图中登记，
+ * 分片记录攒够一批、定时任务触发或合并前才批量写入数据库，避免每个分片多次数据库往返。
+ * 进程异常退出时未写入的分片记录会丢失，客户端续传时会重新上传这些分片。
+ */
+@Component
+public class ChunkUploadTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(ChunkUploadTracker.class);
+
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final ConcurrentHashMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    // 按文件哈希分段的锁：串行化同一上传的会话加载和批量写入，不同上传之间互不影响
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Autowired
+    private DocumentRepository documentRepository;
+
+    @Autowired
+    private DocumentChunkRepository documentChunkRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${file.chunk-tracker.batch-size:50}")
+    private int batchSize;
+
+    /**
+     * 获取上传中文件的会话，首次访问时从数据库加载；没有上传中的记录时返回null
+     */
+    public UploadSession getSession(String fileHash) {
+        UploadSession session = sessions.get(fileHash);
+        if (session != null) {
+            return session;
+        }
+        // 并发的首次访问只加载一次
+        ReentrantLock lock = lockFor(fileHash);
+        lock.lock();
+        try {
+            session = sessions.get(fileHash);
+            if (session != null) {
+                return session;
+            }
+            Optional<Document> document = documentRepository.findByFileHashAndUploadStatus(fileHash, "uploading");
+            if (!document.isPresent()) {
+                return null;
+            }
+            session = new UploadSession(document.get());
+            if (document.get().getChunkBitmap() == null && document.get().getUploadedChunks() != null
+                    && document.get().getUploadedChunks() > 0) {
+                // 引入分片位图之前开始的上传：从分片记录重建一次位图
+                for (DocumentChunk chunk : documentChunkRepository
+                        .findByDocumentIdAndUploadStatusOrderByChunkIndex(session.getDocumentId(), "completed")) {
+                    session.markReceived(chunk.getChunkIndex());
+                }
+            }
+            sessions.put(fileHash, session);
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录新接收的分片，待写入的记录达到批量大小时立即写入数据库
+     */
+    public void complete(UploadSession session, DocumentChunk chunk) {
+        if (session.complete(chunk) >= batchSize) {
+            flush(session);
+        }
+    }
+
+    /**
+     * 将会话中待写入的分片记录批量写入数据库，并更新文档的已上传分片数和分片位图
+     * 同一上传的写入按顺序进行，位图和分片数直接写入绝对值（而非读取后加一），
+     * 因此数据库中的已上传分片数总是等于已写入的分片记录数。
+     * 在调用方的事务中执行；没有事务时开启新事务
+     */
+    public void flush(UploadSession session) {
+        ReentrantLock lock = lockFor(session.getFileHash());
+        lock.lock();
+        try {
+            UploadSession.FlushBatch batch = session.drainPending();
+            if (batch.chunks.isEmpty()) {
+                return;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    documentChunkRepository.saveAll(batch.chunks);
+                    documentRepository.updateUploadProgress(session.getDocumentId(), batch.bitmap.cardinality(),
+                        ChunkBitmap.toBytes(batch.bitmap));
+                });
+            } catch (RuntimeException e) {
+                session.requeue(batch);
+                throw e;
+            }
+            session.markPersisted(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 上传完成或取消后移除会话
+     */
+    public void remove(String fileHash) {
+        sessions.remove(fileHash);
+    }
+
+    /**
+     * 当前事务结束（提交或回滚）后移除会话，之后的访问按数据库中的状态重新加载
+     * 事务结束前会话保持关闭状态，期间到达的分片会被拒绝
+     */
+    public void removeAfterCompletion(String fileHash) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(fileHash);
+                }
+            });
+        } else {
+            remove(fileHash);
+        }
+    }
+
+    /**
+     * 定时写入所有会话的待写入记录，并清理长时间没有活动的会话
+     */
+    @Scheduled(fixedDelayString = "${file.chunk-tracker.flush-interval:2000}")
+    public void flushAll() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, UploadSession> entry : sessions.entrySet()) {
+            UploadSession session = entry.getValue();
+            try {
+                flush(session);
+            } catch (RuntimeException e) {
+                log.warn("写入分片记录失败：{}", entry.getKey(), e);
+                continue;
+            }
+            if (session.expireIfIdle(now, IDLE_TIMEOUT_MILLIS)) {
+                sessions.remove(entry.getKey(), session);
+            }
+        }
+    }
+
+    private ReentrantLock lockFor(String fileHash) {
+        return locks[Math.floorMod(fileHash.hashCode(), LOCK_STRIPES)];
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushAll();
+    }
+}
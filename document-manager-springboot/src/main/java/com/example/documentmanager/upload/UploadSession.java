@@ -0,0 +1,218 @@
+package com.example.documentmanager.upload;
+
+import com.example.documentmanager.entity.Document;
+import com.example.documentmanager.entity.DocumentChunk;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 一次分片上传的内存状态：已接收分片的位图和尚未写入数据库的分片记录
+ * 上传参数在会话创建时从文档记录复制，上传期间不会变化。
+ */
+public class UploadSession {
+
+    private final Long documentId;
+
+    private final String fileHash;
+
+    private final String uploadMode;
+
+    private final Long chunkSize;
+
+    private final Long fileSize;
+
+    private final int totalChunks;
+
+    private final String chunkHashAlgorithm;
+
+    private final BitSet received;
+
+    // 已写入数据库的分片（数据库中的位图和已上传分片数始终与之一致）
+    private final BitSet persisted;
+
+    // 正在写入的分片：同一分片的并发请求只有一个能写入，防止同时写同一个文件
+    private final BitSet inFlight = new BitSet();
+
+    private List<DocumentChunk> pending = new ArrayList<>();
+
+    // 合并开始后关闭，不再接受分片
+    private boolean closed;
+
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    /**
+     * 申请写入分片的结果
+     */
+    public enum Claim {
+        /** 获得写入权，写入结束后必须调用complete或abandon */
+        CLAIMED,
+        /** 分片已接收 */
+        RECEIVED,
+        /** 同一分片正在由另一请求写入 */
+        IN_PROGRESS,
+        /** 上传正在合并或已结束 */
+        CLOSED
+    }
+
+    UploadSession(Document document) {
+        this.documentId = document.getId();
+        this.fileHash = document.getFileHash();
+        this.uploadMode = document.getUploadMode();
+        this.chunkSize = document.getChunkSize();
+        this.fileSize = document.getFileSize();
+        this.totalChunks = document.getTotalChunks() == null ? 0 : document.getTotalChunks();
+        this.chunkHashAlgorithm = document.getChunkHashAlgorithm();
+        this.received = ChunkBitmap.fromBytes(document.getChunkBitmap());
+        this.persisted = (BitSet) received.clone();
+    }
+
+    /**
+     * 申请写入分片
+     */
+    public synchronized Claim claim(int chunkIndex) {
+        touch();
+        if (closed) {
+            return Claim.CLOSED;
+        }
+        if (received.get(chunkIndex)) {
+            return Claim.RECEIVED;
+        }
+        if (inFlight.get(chunkIndex)) {
+            return Claim.IN_PROGRESS;
+        }
+        inFlight.set(chunkIndex);
+        return Claim.CLAIMED;
+    }
+
+    /**
+     * 分片写入成功：登记为已接收并加入待写入数据库的记录，返回待写入的记录数
+     */
+    public synchronized int complete(DocumentChunk chunk) {
+        touch();
+        inFlight.clear(chunk.getChunkIndex());
+        received.set(chunk.getChunkIndex());
+        pending.add(chunk);
+        return pending.size();
+    }
+
+    /**
+     * 分片写入失败：释放写入权，客户端可以重新上传
+     */
+    public synchronized void abandon(int chunkIndex) {
+        inFlight.clear(chunkIndex);
+    }
+
+    /**
+     * 关闭会话以开始合并；有分片正在写入或已关闭时返回false
+     */
+    public synchronized boolean close() {
+        if (closed || !inFlight.isEmpty()) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    /**
+     * 长时间没有活动且没有未完成的工作时关闭会话，返回true表示可以移除
+     * 关闭后仍持有该会话的请求会得到CLOSED，重新获取会话即可
+     */
+    synchronized boolean expireIfIdle(long now, long idleTimeoutMillis) {
+        if (now - lastAccessTime <= idleTimeoutMillis || !inFlight.isEmpty() || !pending.isEmpty()) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    public synchronized int getReceivedCount() {
+        return received.cardinality();
+    }
+
+    /**
+     * 已接收分片位图的副本
+     */
+    public synchronized BitSet getReceived() {
+        return (BitSet) received.clone();
+    }
+
+    /**
+     * 取出待写入数据库的分片记录，同时给出写入成功后数据库中应有的位图
+     */
+    synchronized FlushBatch drainPending() {
+        List<DocumentChunk> drained = pending;
+        pending = new ArrayList<>();
+        BitSet bitmap = (BitSet) persisted.clone();
+        for (DocumentChunk chunk : drained) {
+            bitmap.set(chunk.getChunkIndex());
+        }
+        return new FlushBatch(drained, bitmap);
+    }
+
+    /**
+     * 一批分片记录已写入数据库
+     */
+    synchronized void markPersisted(FlushBatch batch) {
+        persisted.or(batch.bitmap);
+    }
+
+    /**
+     * 写入失败时放回待写入的分片记录，下次刷新时重试
+     */
+    synchronized void requeue(FlushBatch batch) {
+        batch.chunks.addAll(pending);
+        pending = batch.chunks;
+    }
+
+    synchronized void markReceived(int chunkIndex) {
+        received.set(chunkIndex);
+        persisted.set(chunkIndex);
+    }
+
+    /**
+     * 一次批量写入的内容
+     */
+    static class FlushBatch {
+        final List<DocumentChunk> chunks;
+        final BitSet bitmap;
+
+        FlushBatch(List<DocumentChunk> chunks, BitSet bitmap) {
+            this.chunks = chunks;
+            this.bitmap = bitmap;
+        }
+    }
+
+    void touch() {
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public String getUploadMode() {
+        return uploadMode;
+    }
+
+    public Long getChunkSize() {
+        return chunkSize;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public String getChunkHashAlgorithm() {
+        return chunkHashAlgorithm;
+    }
+}
@@ -1 +1,79 @@
- 
\ No newline at end of file
+package com.example.documentmanager.util;
+
+import com.example.documentmanager.entity.DocumentChunk;
+import com.example.documentmanager.service.BlobService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动时的数据初始化与迁移
+ * 在所有单例（包括创建表结构的EntityManagerFactory）初始化之后、内嵌Web服务器开始接收请求之前执行：
+ * 分片id生成器和唯一约束必须在第一个分片请求到达之前就绪
+ */
+@Component
+public class DatabaseInitializer implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseInitializer.class);
+
+    @Autowired
+    private BlobService blobService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ensureChunkUniqueConstraint();
+        seedChunkIdGenerator();
+
+        // 为引入内容寻址存储之前上传的文档补建Blob记录
+        int migrated = blobService.backfillLegacyDocuments();
+        if (migrated > 0) {
+            log.info("已为 {} 个历史文档建立内容寻址存储记录", migrated);
+        }
+    }
+
+    /**
+     * 建立 (document_id, chunk_index) 唯一约束
+     * 旧版本并发上传可能留下重复的分片记录，此时ddl-auto=update创建约束会失败（仅记录日志），
+     * 因此先删除重复记录（保留最新的一条）再补建约束。
+     */
+    private void ensureChunkUniqueConstraint() {
+        Integer existing = jdbcTemplate.queryForObject(
+            "select count(*) from information_schema.statistics where table_schema = database() "
+                + "and table_name = 'document_chunks' and index_name = 'uk_document_chunks_index'", Integer.class);
+        if (existing != null && existing > 0) {
+            return;
+        }
+        int removed = jdbcTemplate.update(
+            "delete c1 from document_chunks c1 join document_chunks c2 "
+                + "on c1.document_id = c2.document_id and c1.chunk_index = c2.chunk_index and c1.id < c2.id");
+        jdbcTemplate.execute("alter table document_chunks add constraint uk_document_chunks_index "
+            + "unique (document_id, chunk_index)");
+        log.info("已建立分片唯一约束，删除重复分片记录 {} 条", removed);
+    }
+
+    /**
+     * 分片id由自增改为表生成器后，保证生成器的起始值大于已有的最大id
+     * 池化优化器会分配 (next_val - allocationSize, next_val] 范围内的id，因此起始值需再加上一个分配大小
+     */
+    private void seedChunkIdGenerator() {
+        Long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from document_chunks", Long.class);
+        long minNextValue = (maxId == null ? 0 : maxId) + DocumentChunk.ID_ALLOCATION_SIZE + 1;
+        int updated = jdbcTemplate.update(
+            "update id_generators set next_val = ? where name = 'document_chunks' and next_val < ?",
+            minNextValue, minNextValue);
+        if (updated == 0) {
+            Integer rows = jdbcTemplate.queryForObject(
+                "select count(*) from id_generators where name = 'document_chunks'", Integer.class);
+            if (rows == null || rows == 0) {
+                jdbcTemplate.update("insert into id_generators (name, next_val) values ('document_chunks', ?)",
+                    minNextValue);
+            }
+        }
+    }
+}
@@ -1,15 +1,53 @@
 package com.example.documentmanager.util;
 
+import com.example.documentmanager.hash.ContentHasher;
+import com.example.documentmanager.hash.HashAlgorithm;
+import com.example.documentmanager.hash.HexUtil;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 public class FileUtil {
+
+    /**
+     * 哈希计算使用的缓冲区大小（每个线程复用一个）
+     */
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<byte[]> HASH_BUFFER = ThreadLocal.withInitial(() -> new byte[HASH_BUFFER_SIZE]);
+
+    /**
+     * 文件哈希使用的直接缓冲区大小（每个线程复用一个）
+     */
+    private static final int DIRECT_HASH_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> DIRECT_HASH_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_HASH_BUFFER_SIZE));
+
+    /**
+     * 内存映射哈希时每个映射窗口的大小
+     */
+    private static final long MMAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    
+    /**
+     * Merkle树叶子和内部节点的哈希前缀（域分离）
+     */
+    private static final byte[] TREE_LEAF_PREFIX = {0x00};
+    
+    private static final byte[] TREE_NODE_PREFIX = {0x01};
     
     /**
      * 获取日期路径 (yyyy/MM/dd)
@@ -44,22 +82,144 @@ public class FileUtil {
      * 计算文件的MD5值
      */
     public static String calculateMD5(InputStream inputStream) throws IOException {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] buffer = new byte[8192];
+        return calculateHash(HashAlgorithm.MD5, inputStream);
+    }
+    
+    /**
+     * 使用指定算法计算输入流的哈希值
+     */
+    public static String calculateHash(HashAlgorithm algorithm, InputStream inputStream) throws IOException {
+        ContentHasher hasher = algorithm.newHasher();
+        byte[] buffer = HASH_BUFFER.get();
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            hasher.update(buffer, 0, bytesRead);
+        }
+        return hasher.digestHex();
+    }
+    
+    /**
+     * 计算磁盘文件的哈希值
+     * 文件大小不小于 mmapThreshold 时按固定窗口内存映射计算，避免内核到堆的拷贝；
+     * 小文件或映射失败时回退为直接缓冲区读取
+     */
+    public static String calculateHash(HashAlgorithm algorithm, Path path, long mmapThreshold) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (mmapThreshold > 0 && size >= mmapThreshold) {
+                try {
+                    return calculateHashMapped(algorithm, channel, size);
+                } catch (IOException e) {
+                    // 映射失败（如地址空间不足或文件系统不支持），回退为普通读取
+                }
+            }
+            ContentHasher hasher = algorithm.newHasher();
+            ByteBuffer buffer = DIRECT_HASH_BUFFER.get();
+            buffer.clear();
+            long position = 0;
             int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                md.update(buffer, 0, bytesRead);
+            while ((bytesRead = channel.read(buffer, position)) != -1) {
+                position += bytesRead;
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+            return hasher.digestHex();
+        }
+    }
+
+    private static String calculateHashMapped(HashAlgorithm algorithm, FileChannel channel, long size) throws IOException {
+        ContentHasher hasher = algorithm.newHasher();
+        for (long position = 0; position < size; position += MMAP_WINDOW_SIZE) {
+            long length = Math.min(MMAP_WINDOW_SIZE, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            hasher.update(window);
+        }
+        return hasher.digestHex();
+    }
+    
+    /**
+     * 边写入目标文件边计算哈希值（单次读取输入流）
+     */
+    public static String copyAndCalculateHash(HashAlgorithm algorithm, InputStream inputStream, Path target) throws IOException {
+        try (OutputStream outputStream = Files.newOutputStream(target)) {
+            return copyAndCalculateHash(algorithm, inputStream, outputStream);
+        }
+    }
+    
+    /**
+     * 边写入输出流边计算哈希值，哈希针对输入的原始内容（输出流可以是压缩流）
+     */
+    public static String copyAndCalculateHash(HashAlgorithm algorithm, InputStream inputStream,
+                                              OutputStream outputStream) throws IOException {
+        ContentHasher hasher = algorithm.newHasher();
+        byte[] buffer = HASH_BUFFER.get();
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            hasher.update(buffer, 0, bytesRead);
+            outputStream.write(buffer, 0, bytesRead);
+        }
+        return hasher.digestHex();
+    }
+    
+    /**
+     * 将输入流写入文件通道的指定位置，同时计算哈希值
+     */
+    public static String writeAtAndCalculateHash(HashAlgorithm algorithm, InputStream inputStream,
+                                                 FileChannel channel, long position) throws IOException {
+        ContentHasher hasher = algorithm.newHasher();
+        byte[] buffer = HASH_BUFFER.get();
+        int bytesRead;
+        long writePosition = position;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            hasher.update(buffer, 0, bytesRead);
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, bytesRead);
+            while (byteBuffer.hasRemaining()) {
+                writePosition += channel.write(byteBuffer, writePosition);
             }
-            byte[] digest = md.digest();
-            
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
+        }
+        return hasher.digestHex();
+    }
+    
+    /**
+     * 将摘要字节转换为十六进制字符串
+     */
+    public static String toHex(byte[] digest) {
+        return HexUtil.toHex(digest);
+    }
+    
+    /**
+     * 根据分片哈希计算Merkle树根哈希
+     * 叶子节点为 H(0x00 + 分片哈希)，父节点为 H(0x01 + 左子节点 + 右子节点)，奇数个节点时最后一个直接上移；
+     * 叶子和内部节点使用不同前缀（同RFC 6962），内部节点的值不能冒充叶子构造出相同的根哈希
+     */
+    public static String calculateTreeHash(HashAlgorithm algorithm, List<String> chunkHashes) {
+        if (chunkHashes.isEmpty()) {
+            return algorithm.newHasher().digestHex();
+        }
+        List<byte[]> level = new ArrayList<>(chunkHashes.size());
+        for (String chunkHash : chunkHashes) {
+            byte[] chunkDigest = HexUtil.fromHex(chunkHash);
+            ContentHasher hasher = algorithm.newHasher();
+            hasher.update(TREE_LEAF_PREFIX, 0, 1);
+            hasher.update(chunkDigest, 0, chunkDigest.length);
+            level.add(hasher.digest());
+        }
+        while (level.size() > 1) {
+            List<byte[]> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                if (i + 1 < level.size()) {
+                    ContentHasher hasher = algorithm.newHasher();
+                    hasher.update(TREE_NODE_PREFIX, 0, 1);
+                    hasher.update(level.get(i), 0, level.get(i).length);
+                    hasher.update(level.get(i + 1), 0, level.get(i + 1).length);
+                    parents.add(hasher.digest());
+                } else {
+                    parents.add(level.get(i));
+                }
             }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD5 algorithm not available", e);
+            level = parents;
         }
+        return toHex(level.get(0));
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.example.documentmanager.counter;
+
+import com.example.documentmanager.cache.DocumentMetadataCache;
+import com.example.documentmanager.entity.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class DownloadCounterTest {
+
+    private static final long DOCUMENT_ID = 1L;
+
+    private final AtomicLong flushed = new AtomicLong();
+
+    private JdbcTemplate jdbcTemplate;
+
+    private DocumentMetadataCache metadataCache;
+
+    private DownloadCounter counter;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        doAnswer(invocation -> {
+            List<Object[]> updates = invocation.getArgument(1);
+            for (Object[] update : updates) {
+                flushed.addAndGet((Long) update[0]);
+            }
+            return new int[updates.size()];
+        }).when(jdbcTemplate).batchUpdate(anyString(), anyList());
+        metadataCache = new DocumentMetadataCache();
+        ReflectionTestUtils.setField(metadataCache, "maxBytes", 1024 * 1024L);
+        metadataCache.init();
+        counter = new DownloadCounter();
+        ReflectionTestUtils.setField(counter, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(counter, "documentMetadataCache", metadataCache);
+    }
+
+    @Test
+    void concurrentIncrementsAreNotLostWhileFlushing() throws Exception {
+        int threads = 8;
+        int incrementsPerThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean incrementing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int n = 0; n < incrementsPerThread; n++) {
+                        counter.increment(DOCUMENT_ID);
+                    }
+                    return null;
+                }));
+            }
+            // 计数期间不断写回，包括计数暂时为0、计数器被移除的时刻
+            Future<?> flusher = executor.submit(() -> {
+                start.await();
+                while (incrementing.get()) {
+                    counter.flush();
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+            incrementing.set(false);
+            flusher.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        counter.flush();
+
+        assertEquals((long) threads * incrementsPerThread, flushed.get());
+        assertEquals(0, counter.getPending(DOCUMENT_ID));
+    }
+
+    @Test
+    void flushInvalidatesCachedMetadata() {
+        Document stale = completedDocument(0);
+        metadataCache.get(DOCUMENT_ID, id -> stale);
+        counter.increment(DOCUMENT_ID);
+
+        counter.flush();
+
+        Document fresh = completedDocument(1);
+        assertSame(fresh, metadataCache.get(DOCUMENT_ID, id -> fresh));
+    }
+
+    @Test
+    void failedFlushKeepsCountsForRetry() {
+        counter.increment(DOCUMENT_ID);
+        counter.increment(DOCUMENT_ID);
+        doThrow(new IllegalStateException("database unavailable"))
+            .when(jdbcTemplate).batchUpdate(anyString(), anyList());
+
+        assertThrows(IllegalStateException.class, counter::flush);
+        assertEquals(2, counter.getPending(DOCUMENT_ID));
+    }
+
+    private static Document completedDocument(int downloadCount) {
+        Document document = new Document();
+        document.setId(DOCUMENT_ID);
+        document.setUploadStatus("completed");
+        document.setDownloadCount(downloadCount);
+        return document;
+    }
+}
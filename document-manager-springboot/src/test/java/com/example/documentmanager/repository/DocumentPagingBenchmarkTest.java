@@ -0,0 +1,143 @@
+package com.example.documentmanager.repository;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 键集分页与OFFSET分页的对比基准（默认不运行，见pom.xml中的excludedGroups）
+ * 插入约100万条文档记录，按上传时间倒序分别用两种方式读取不同深度的一页，输出每页耗时：
+ * MySQL（InnoDB）的OFFSET需要逐行扫描并丢弃前面所有行，耗时随深度线性增长；键集分页从索引中的游标位置开始读取，与深度无关。
+ * 默认使用H2文件数据库（target/paging-benchmark），其B树节点记录子树行数，OFFSET可以跳过整个子树，两者差别不明显；
+ * 对比生产环境的表现应指定MySQL（会重建documents表，请使用单独的库）：
+ * -Dbenchmark.url=jdbc:mysql://localhost:3306/paging_benchmark?createDatabaseIfNotExist=true&rewriteBatchedStatements=true
+ * -Dbenchmark.driver=com.mysql.cj.jdbc.Driver -Dbenchmark.username=... -Dbenchmark.password=...
+ * -Dbenchmark.dialect=org.hibernate.dialect.MySQL8Dialect。行数可用 -Dbenchmark.rows 调整。
+ */
+@Tag("benchmark")
+@DataJpaTest(showSql = false, properties = {
+    "spring.datasource.url=${benchmark.url:jdbc:h2:file:./target/paging-benchmark}",
+    "spring.datasource.driver-class-name=${benchmark.driver:org.h2.Driver}",
+    "spring.datasource.username=${benchmark.username:sa}",
+    "spring.datasource.password=${benchmark.password:}",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.properties.hibernate.dialect=${benchmark.dialect:org.hibernate.dialect.H2Dialect}"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class DocumentPagingBenchmarkTest {
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 1_000_000);
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final int INSERT_BATCH_SIZE = 10_000;
+
+    private static final int ITERATIONS = 5;
+
+    private static final List<String> FIELDS = Arrays.asList("id", "uploadTime");
+
+    @Autowired
+    private DocumentRepository documentRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void keysetVersusOffset() {
+        insertDocuments();
+
+        System.out.printf("%12s %14s %14s%n", "offset", "offset (ms)", "keyset (ms)");
+        for (int offset : new int[] {0, 1_000, 10_000, 100_000, ROWS / 2, ROWS - PAGE_SIZE}) {
+            if (offset >= ROWS) {
+                continue;
+            }
+            // 游标为前一页的最后一行，先用OFFSET取出（不计时）
+            Object afterValue = null;
+            Long afterId = null;
+            if (offset > 0) {
+                Object[] previous = offsetPage(offset - 1, 1).get(0);
+                afterId = (Long) previous[0];
+                afterValue = previous[1];
+            }
+
+            long offsetNanos = Long.MAX_VALUE;
+            long keysetNanos = Long.MAX_VALUE;
+            List<Object[]> offsetRows = null;
+            List<Map<String, Object>> keysetRows = null;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                offsetRows = offsetPage(offset, PAGE_SIZE);
+                offsetNanos = Math.min(offsetNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                keysetRows = documentRepository.findSummaries(FIELDS, "uploadTime", false,
+                    afterValue, afterId, PAGE_SIZE);
+                keysetNanos = Math.min(keysetNanos, System.nanoTime() - start);
+            }
+
+            assertEquals(offsetRows.size(), keysetRows.size());
+            for (int i = 0; i < offsetRows.size(); i++) {
+                assertEquals(offsetRows.get(i)[0], keysetRows.get(i).get("id"));
+            }
+            System.out.printf("%12d %14.2f %14.2f%n", offset, offsetNanos / 1e6, keysetNanos / 1e6);
+        }
+    }
+
+    private List<Object[]> offsetPage(int offset, int limit) {
+        return entityManager.createQuery(
+                "select d.id, d.uploadTime from Document d order by d.uploadTime desc, d.id desc", Object[].class)
+            .setFirstResult(offset)
+            .setMaxResults(limit)
+            .getResultList();
+    }
+
+    /**
+     * 批量插入文档记录；每两条记录的上传时间相同，覆盖排序值相同时按id区分的情况
+     */
+    private void insertDocuments() {
+        long baseTime = new Date().getTime() - ROWS * 1000L;
+        for (int from = 0; from < ROWS; from += INSERT_BATCH_SIZE) {
+            int batchStart = from;
+            int batchSize = Math.min(INSERT_BATCH_SIZE, ROWS - from);
+            jdbcTemplate.batchUpdate("insert into documents (filename, stored_filename, file_size, file_hash, "
+                    + "upload_time, download_count, version, upload_status) values (?, ?, ?, ?, ?, 0, 1, 'completed')",
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        int n = batchStart + i;
+                        ps.setString(1, "file-" + n + ".txt");
+                        ps.setString(2, "benchmark/" + n);
+                        ps.setLong(3, n);
+                        ps.setString(4, Integer.toHexString(n));
+                        ps.setTimestamp(5, new Timestamp(baseTime + (n / 2) * 1000L));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return batchSize;
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.documentmanager.upload;
+
+import com.example.documentmanager.entity.Document;
+import com.example.documentmanager.entity.DocumentChunk;
+import com.example.documentmanager.repository.DocumentChunkRepository;
+import com.example.documentmanager.repository.DocumentRepository;
+import com.example.documentmanager.service.DocumentServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 同一上传的重复分片和并行分片：分片记录数、位图和已上传分片数必须保持一致
+ */
+class ChunkUploadConcurrencyTest {
+
+    private static final String FILE_HASH = "0123456789abcdef0123456789abcdef";
+
+    private static final long DOCUMENT_ID = 1L;
+
+    private static final int TOTAL_CHUNKS = 300;
+
+    @TempDir
+    Path uploadDir;
+
+    private final Map<Integer, DocumentChunk> chunkRows = new HashMap<>();
+
+    private final List<String> violations = Collections.synchronizedList(new ArrayList<>());
+
+    private int persistedUploadedChunks;
+
+    private byte[] persistedBitmap;
+
+    private ChunkUploadTracker tracker;
+
+    private DocumentServiceImpl documentService;
+
+    @BeforeEach
+    void setUp() {
+        Document document = new Document();
+        document.setId(DOCUMENT_ID);
+        document.setFileHash(FILE_HASH);
+        document.setUploadMode("chunked");
+        document.setTotalChunks(TOTAL_CHUNKS);
+        document.setUploadedChunks(0);
+        document.setChunkHashAlgorithm("MD5");
+        document.setUploadStatus("uploading");
+
+        DocumentRepository documentRepository = mock(DocumentRepository.class);
+        when(documentRepository.findByFileHashAndUploadStatus(FILE_HASH, "uploading"))
+            .thenReturn(Optional.of(document));
+        // 已上传分片数和位图必须与写入时已有的分片记录一致
+        doAnswer(invocation -> {
+            synchronized (chunkRows) {
+                int uploadedChunks = invocation.getArgument(1);
+                BitSet bitmap = ChunkBitmap.fromBytes(invocation.getArgument(2));
+                if (uploadedChunks != chunkRows.size() || bitmap.cardinality() != chunkRows.size()) {
+                    violations.add("uploadedChunks=" + uploadedChunks + ", bitmap=" + bitmap.cardinality()
+                        + ", rows=" + chunkRows.size());
+                }
+                persistedUploadedChunks = uploadedChunks;
+                persistedBitmap = invocation.getArgument(2);
+            }
+            return 1;
+        }).when(documentRepository).updateUploadProgress(eq(DOCUMENT_ID), anyInt(), any());
+
+        // 模拟 (document_id, chunk_index) 唯一约束
+        DocumentChunkRepository documentChunkRepository = mock(DocumentChunkRepository.class);
+        doAnswer(invocation -> {
+            Iterable<DocumentChunk> chunks = invocation.getArgument(0);
+            List<DocumentChunk> saved = new ArrayList<>();
+            synchronized (chunkRows) {
+                for (DocumentChunk chunk : chunks) {
+                    if (chunkRows.putIfAbsent(chunk.getChunkIndex(), chunk) != null) {
+                        violations.add("duplicate chunk row " + chunk.getChunkIndex());
+                        throw new DataIntegrityViolationException("uk_document_chunks_index");
+                    }
+                    saved.add(chunk);
+                }
+            }
+            return saved;
+        }).when(documentChunkRepository).saveAll(any());
+
+        tracker = new ChunkUploadTracker();
+        ReflectionTestUtils.setField(tracker, "documentRepository", documentRepository);
+        ReflectionTestUtils.setField(tracker, "documentChunkRepository", documentChunkRepository);
+        ReflectionTestUtils.setField(tracker, "transactionTemplate",
+            new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(tracker, "batchSize", 7);
+
+        documentService = new DocumentServiceImpl();
+        ReflectionTestUtils.setField(documentService, "chunkUploadTracker", tracker);
+        ReflectionTestUtils.setField(documentService, "chunkSizeAdvisor", new ChunkSizeAdvisor());
+        ReflectionTestUtils.setField(documentService, "uploadDir", uploadDir.toString());
+    }
+
+    @Test
+    void duplicateAndParallelChunksStayConsistent() throws Exception {
+        int threads = 12;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean uploading = new AtomicBoolean(true);
+        AtomicInteger stored = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger inProgress = new AtomicInteger();
+        try {
+            // 每个线程按不同顺序上传全部分片，每个分片都会被多个线程重复、并行地发送
+            List<Future<?>> uploaders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = t;
+                uploaders.add(executor.submit(() -> {
+                    List<Integer> order = new ArrayList<>();
+                    for (int i = 0; i < TOTAL_CHUNKS; i++) {
+                        order.add(i);
+                    }
+                    Collections.shuffle(order, new Random(seed));
+                    start.await();
+                    for (int chunkIndex : order) {
+                        byte[] content = chunkContent(chunkIndex);
+                        Map<String, Object> result = documentService.uploadChunk(FILE_HASH, chunkIndex,
+                            content.length, new ByteArrayInputStream(content));
+                        if (Boolean.TRUE.equals(result.get("skipped"))) {
+                            skipped.incrementAndGet();
+                        } else if (Boolean.TRUE.equals(result.get("inProgress"))) {
+                            inProgress.incrementAndGet();
+                        } else if (Boolean.TRUE.equals(result.get("success"))) {
+                            stored.incrementAndGet();
+                        } else {
+                            violations.add("unexpected result for chunk " + chunkIndex + ": " + result);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            // 上传期间定时任务不断批量写入
+            Future<?> flusher = executor.submit(() -> {
+                start.await();
+                while (uploading.get()) {
+                    tracker.flushAll();
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> uploader : uploaders) {
+                uploader.get(60, TimeUnit.SECONDS);
+            }
+            uploading.set(false);
+            flusher.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        UploadSession session = tracker.getSession(FILE_HASH);
+        assertTrue(session.close(), "no chunk may still be in flight");
+        tracker.flush(session);
+
+        assertEquals(Collections.emptyList(), violations);
+        assertEquals(TOTAL_CHUNKS, stored.get(), "each chunk is stored exactly once");
+        assertEquals((long) threads * TOTAL_CHUNKS, stored.get() + skipped.get() + inProgress.get());
+        assertEquals(TOTAL_CHUNKS, chunkRows.size());
+        assertEquals(TOTAL_CHUNKS, persistedUploadedChunks);
+        BitSet expected = new BitSet();
+        expected.set(0, TOTAL_CHUNKS);
+        assertEquals(expected, ChunkBitmap.fromBytes(persistedBitmap));
+        assertEquals(expected, session.getReceived());
+        for (int i = 0; i < TOTAL_CHUNKS; i++) {
+            Path chunkPath = uploadDir.resolve("chunks").resolve(FILE_HASH).resolve(i + ".chunk");
+            assertArrayEquals(chunkContent(i), Files.readAllBytes(chunkPath), "chunk file " + i);
+        }
+    }
+
+    @Test
+    void closeWaitsForInFlightChunksAndRejectsLaterOnes() {
+        UploadSession session = tracker.getSession(FILE_HASH);
+
+        assertEquals(UploadSession.Claim.CLAIMED, session.claim(3));
+        assertEquals(UploadSession.Claim.IN_PROGRESS, session.claim(3));
+        assertFalse(session.close(), "merge must wait for the in-flight chunk");
+
+        session.abandon(3);
+        assertEquals(UploadSession.Claim.CLAIMED, session.claim(3), "an abandoned chunk can be re-sent");
+        DocumentChunk chunk = new DocumentChunk(DOCUMENT_ID, 3, 1L, "hash", "path");
+        tracker.complete(session, chunk);
+        assertEquals(UploadSession.Claim.RECEIVED, session.claim(3));
+
+        assertTrue(session.close());
+        assertFalse(session.close(), "only one merge may proceed");
+        assertEquals(UploadSession.Claim.CLOSED, session.claim(4));
+
+        tracker.flush(session);
+        assertEquals(1, chunkRows.size());
+        assertEquals(1, persistedUploadedChunks);
+    }
+
+    private static byte[] chunkContent(int chunkIndex) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            content.append("chunk-").append(chunkIndex).append('-').append(i).append('\n');
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}